@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/** The batch command, which runs a script of gitlet commands in one
+ *  process: "gitlet batch FILE", or "gitlet batch" to read the script
+ *  from the standard input. Each line is one command, with its
+ *  operands separated by blanks and quoted with double quotes when they
+ *  contain blanks; blank lines and lines starting with # are skipped.
+ *  A failing command prints its error and the script goes on.
+ *
+ *  The stage and the index, which add and rm would otherwise rewrite
+ *  in full on every call, are kept in memory. The stage is flushed
+ *  after each commit or merge, and both are flushed when the script
+ *  ends, even if it stops on an unexpected error.
+ *  @author Shantao Ru
+ */
+class Batch {
+
+    /** Run the batch command ARGS. */
+    static void command(String... args) throws IOException {
+        if (args.length > 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        if (args.length == 2) {
+            File script = new File(args[1]);
+            if (!script.isFile()) {
+                throw new GitletException("Script does not exist.");
+            }
+            try (Reader in = Files.newBufferedReader(script.toPath(),
+                    Charset.defaultCharset())) {
+                run(in);
+            }
+        } else {
+            run(new InputStreamReader(System.in, Charset.defaultCharset()));
+        }
+    }
+
+    /** Run every command in the script IN, holding the Lock of the
+     *  repository throughout once it exists, from the start or from the
+     *  init that makes it, since the stage and index kept in memory must
+     *  not change under the script. */
+    static void run(Reader in) throws IOException {
+        Lock lock = null;
+        try {
+            Utils.deferWrites(Stage.STAGE_FILE, Index.INDEX_FILE);
+            try {
+                lock = lock(lock);
+                BufferedReader lines = new BufferedReader(in);
+                for (String line = lines.readLine(); line != null;
+                     line = lines.readLine()) {
+                    runLine(line);
+                    lock = lock(lock);
+                }
+            } finally {
+                Utils.deferWrites();
+                Utils.sync();
+            }
+        } finally {
+            if (lock != null) {
+                lock.close();
+            }
+        }
+    }
+
+    /** Return LOCK, or the Lock of the repository if LOCK is null and
+     *  the repository exists, or null. */
+    private static Lock lock(Lock lock) {
+        if (lock == null && Gitlet.GITLET_FILE.isDirectory()) {
+            return Lock.acquire();
+        }
+        return lock;
+    }
+
+    /** Run the command LINE, printing its error if it fails. */
+    private static void runLine(String line) throws IOException {
+        try {
+            String[] args = split(line);
+            if (args.length == 0 || args[0].startsWith("#")) {
+                return;
+            }
+            if (args[0].equals("batch")) {
+                throw new GitletException("Cannot nest batches.");
+            }
+            Main.run(args);
+            if (args[0].equals("commit") || args[0].equals("merge")) {
+                Utils.flushWrite(Stage.STAGE_FILE);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Return the operands of the command LINE. */
+    static String[] split(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        StringBuilder arg = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    i += 1;
+                    arg.append(line.charAt(i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    result.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (quoted) {
+            throw new GitletException("Unterminated quote.");
+        }
+        if (arg != null) {
+            result.add(arg.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,482 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Micro-benchmarks for gitlet, run as
+ *      java gitlet.Benchmarks NAME
+ *  where NAME is one of:
+ *      merge-base   merge-base latency on synthetic histories of
+ *                   10k to 100k commits with criss-cross merges.
+ *      codec        encode/decode latency and size of the Codec format
+ *                   against Java serialization for commits, branches,
+ *                   the head and stages.
+ *      prefix       abbreviated id resolution in a PrefixIndex of 1M
+ *                   commit ids.
+ *      find         message lookups in a MessageIndex against parallel
+ *                   substring and regex searches over 100k commits.
+ *      log          writing the log of a 100k-commit history, with and
+ *                   without -n.
+ *      add          adding directories of 10k to 100k new files.
+ *      checkout     switching between branches of 50k files that differ
+ *                   in three of them, and restoring all 50k files.
+ *      stress       eight gitlet processes committing ten times each to
+ *                   one repository at once, checking that no commit is
+ *                   lost.
+ *      commit       commit latency as the history grows to 5k commits.
+ *  The add, checkout, stress and commit benchmarks must be run in an
+ *  empty directory.
+ *  @author Shantao Ru
+ */
+public class Benchmarks {
+
+    /** Number of times each measurement is repeated. */
+    private static final int REPEATS = 50;
+
+    /** Run the benchmark named ARGS[0]. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Please name a benchmark.");
+            System.exit(0);
+        }
+        if (args[0].equals("merge-base")) {
+            for (int n : new int[] {10000, 50000, 100000}) {
+                mergeBase(n);
+            }
+            System.exit(0);
+        }
+        if (args[0].equals("codec")) {
+            codec();
+            System.exit(0);
+        }
+        if (args[0].equals("prefix")) {
+            prefix(1000000);
+            System.exit(0);
+        }
+        if (args[0].equals("find")) {
+            find(100000);
+            System.exit(0);
+        }
+        if (args[0].equals("log")) {
+            log(100000);
+            System.exit(0);
+        }
+        if (args[0].equals("add") || args[0].equals("checkout")
+                || args[0].equals("stress") || args[0].equals("commit")) {
+            if (Gitlet.GITLET_FILE.exists()) {
+                System.out.println("Run the " + args[0] + " benchmark in an "
+                        + "empty directory.");
+                System.exit(0);
+            }
+            File dir = Utils.join(Gitlet.CWD_FOLD, args[0] + "-bench");
+            if (args[0].equals("add")) {
+                for (int n : new int[] {10000, 30000, 100000}) {
+                    add(dir, n);
+                }
+            } else if (args[0].equals("checkout")) {
+                checkout(dir, 50000);
+            } else if (args[0].equals("stress")) {
+                stress(dir, 8, 10);
+            } else {
+                commit(dir, 5000, 1000);
+            }
+            delete(dir);
+            System.exit(0);
+        }
+        System.out.println("No benchmark with that name exists.");
+    }
+
+    /** Time merge-base queries on a synthetic history of N commits: a
+     *  trunk, then two long-lived branches that merge each other every
+     *  hundred commits, which makes every merge criss-cross. */
+    private static void mergeBase(int n) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File graphFile = new File(dir, "commit-graph");
+        File dataFile = new File(dir, "commit-data");
+        CommitGraph graph = new CommitGraph(graphFile, dataFile);
+        long start = System.nanoTime();
+        String trunk = null;
+        int made = 0;
+        for (; made < n / 10; made += 1) {
+            trunk = add(graph, made, trunk, null);
+        }
+        String a = trunk;
+        String b = trunk;
+        while (made < n) {
+            String oldA = a;
+            String oldB = b;
+            boolean cross = made % 200 == 0;
+            a = add(graph, made, oldA, cross ? oldB : null);
+            b = add(graph, made + 1, oldB, cross ? oldA : null);
+            made += 2;
+        }
+        double build = (System.nanoTime() - start) / 1e6;
+
+        int headA = graph.find(a);
+        int headB = graph.find(b);
+        int bases = 0;
+        int visited = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i += 1) {
+            MergeBase search = new MergeBase(graph);
+            bases = search.all(headA, headB).size();
+            visited = search.visited();
+        }
+        double latency = (System.nanoTime() - start) / 1e6 / REPEATS;
+        System.out.printf("commits=%d build=%.0fms merge-base=%.3fms "
+                + "bases=%d visited=%d%n", n, build, latency, bases, visited);
+
+        graphFile.delete();
+        dataFile.delete();
+        dir.delete();
+    }
+
+    /** Compare the Codec format with Java serialization on a commit, a
+     *  branch, the head and a stage of 1000 files. */
+    private static void codec() throws IOException {
+        String id = Utils.sha1("id");
+        File commitFile = Commit.file(id);
+        Commit commit = new Commit("A typical commit message.",
+                Commit.getTimestamp(), commitFile);
+        commit.changeTree(id);
+        Branch branch = new Branch("master", commitFile);
+        Stage stage = new Stage();
+        for (int i = 0; i < 1000; i += 1) {
+            String sha1 = Utils.sha1("" + i);
+            stage.addFile("src/dir" + i % 10 + "/file" + i + ".txt",
+                    Blob.file(sha1));
+        }
+        Head head = new Head(Branch.MASTER_FILE, commitFile);
+        for (Codec.Encodable obj : new Codec.Encodable[] {
+            commit, branch, head, stage }) {
+            String name = obj.getClass().getSimpleName().toLowerCase();
+            byte[] java = Utils.serialize(obj);
+            byte[] codec = Codec.encode(obj);
+            int n = 20000 / (1 + java.length / 1000);
+            double javaEncode = time(n, () -> Utils.serialize(obj));
+            double codecEncode = time(n, () -> Codec.encode(obj));
+            double javaDecode = time(n, () -> {
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new ByteArrayInputStream(java))) {
+                    in.readObject();
+                } catch (IOException | ClassNotFoundException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            });
+            double codecDecode = time(n,
+                    () -> Codec.decode(ByteBuffer.wrap(codec)));
+            System.out.printf("%-7s java: %6d bytes encode=%.2fus "
+                    + "decode=%.2fus%n", name, java.length, javaEncode,
+                    javaDecode);
+            System.out.printf("%-7s codec: %5d bytes encode=%.2fus "
+                    + "decode=%.2fus%n", name, codec.length, codecEncode,
+                    codecDecode);
+        }
+    }
+
+    /** Time resolving 8-digit abbreviations in an index of N random
+     *  commit ids, with a full tail of unsorted ids. */
+    private static void prefix(int n) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File file = new File(dir, "commit-ids");
+        PrefixIndex index = new PrefixIndex(file);
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            ids.add(Utils.sha1("commit " + i));
+        }
+        long start = System.nanoTime();
+        index.rewrite(ids);
+        double build = (System.nanoTime() - start) / 1e6;
+        for (int i = 0; i < PrefixIndex.TAIL_LIMIT; i += 1) {
+            String id = Utils.sha1("tail " + i);
+            index.add(id);
+            ids.add(id);
+        }
+        int found = 0;
+        int queries = 100000;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i += 1) {
+            String id = ids.get((int) ((long) i * 7919 % ids.size()));
+            found += index.resolve(id.substring(0, 8), 2).size();
+        }
+        double latency = (System.nanoTime() - start) / 1e3 / queries;
+        System.out.printf("ids=%d build=%.0fms resolve=%.2fus found=%d/%d%n",
+                n, build, latency, found, queries);
+        file.delete();
+        dir.delete();
+    }
+
+    /** Time finding commits by message, word, substring and regular
+     *  expression in a history of N commits. */
+    private static void find(int n) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File graphFile = new File(dir, "commit-graph");
+        File dataFile = new File(dir, "commit-data");
+        File findDir = new File(dir, "find");
+        CommitGraph graph = new CommitGraph(graphFile, dataFile);
+        String parent = null;
+        for (int i = 0; i < n; i += 1) {
+            String id = Utils.sha1("commit " + i);
+            graph.append(id, parent, null, "Thu Jan 1 00:00:00 1970 +0000",
+                    "Fix issue " + i + " in module " + i % 100);
+            parent = id;
+        }
+        MessageIndex index = new MessageIndex(findDir);
+        long start = System.nanoTime();
+        index.build(graph);
+        double build = (System.nanoTime() - start) / 1e6;
+        double message = time(REPEATS,
+                () -> index.lookup("Fix issue 4242 in module 42"));
+        double word = time(REPEATS, () -> index.lookupWord("4242"));
+        double contains = time(REPEATS,
+                () -> graph.search(m -> m.contains("issue 4242 ")));
+        Pattern regex = Pattern.compile("issue 42+ in");
+        double grep = time(REPEATS,
+                () -> graph.search(m -> regex.matcher(m).find()));
+        System.out.printf("commits=%d build=%.0fms message=%.1fus "
+                + "word=%.1fus contains=%.0fus grep=%.0fus%n", n, build,
+                message, word, contains, grep);
+        for (File f : findDir.listFiles()) {
+            f.delete();
+        }
+        findDir.delete();
+        graphFile.delete();
+        dataFile.delete();
+        dir.delete();
+    }
+
+    /** Time writing the log of a linear history of N commits to a
+     *  writer that discards it, in full and limited to ten entries. */
+    private static void log(int n) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File graphFile = new File(dir, "commit-graph");
+        File dataFile = new File(dir, "commit-data");
+        CommitGraph graph = new CommitGraph(graphFile, dataFile);
+        String head = null;
+        for (int i = 0; i < n; i += 1) {
+            head = add(graph, i, head, null);
+        }
+        int tip = graph.find(head);
+        double full = time(5, () -> writeLog(graph, tip));
+        double limited = time(REPEATS, () -> writeLog(graph, tip, "-n", "10"));
+        System.out.printf("commits=%d log=%.0fms log-n10=%.1fus%n", n,
+                full / 1e3, limited);
+        graphFile.delete();
+        dataFile.delete();
+        dir.delete();
+    }
+
+    /** Time adding the directory DIR/N of N new files to a new
+     *  repository. */
+    private static void add(File dir, int n) throws IOException {
+        writeFiles(Utils.join(dir, Integer.toString(n)), n);
+        Gitlet.init();
+        long start = System.nanoTime();
+        Gitlet.add("add-bench/" + n);
+        double time = (System.nanoTime() - start) / 1e6;
+        System.out.printf("files=%d add=%.0fms per-file=%.1fus%n", n,
+                time, time * 1e3 / n);
+        delete(Gitlet.GITLET_FILE);
+        Daemon.reload();
+    }
+
+    /** Time checking out, in a new repository, a branch whose commit
+     *  differs in three of the N files under DIR from the current one,
+     *  checking out the current branch again, and restoring the files
+     *  after they were all deleted. */
+    private static void checkout(File dir, int n) throws IOException {
+        writeFiles(dir, n);
+        Gitlet.init();
+        Gitlet.add(dir.getName());
+        Gitlet.commit("files", null);
+        Gitlet.branch("other");
+        for (int i = 0; i < 3; i += 1) {
+            int k = i * n / 3;
+            Files.writeString(Utils.join(dir, Integer.toString(k / 100),
+                    k + ".txt").toPath(), "changed " + k);
+        }
+        Gitlet.add(dir.getName());
+        Gitlet.commit("three changes", null);
+        System.setProperty("gitlet.checkoutStats", "true");
+        long start = System.nanoTime();
+        Gitlet.branchCheckout("other");
+        double there = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        Gitlet.branchCheckout("master");
+        double back = (System.nanoTime() - start) / 1e6;
+        delete(dir);
+        start = System.nanoTime();
+        Gitlet.reset(Utils.readObject(Head.HEAD_FILE, Head.class)
+                .getCurrentCommit().commitID(), true);
+        double restore = (System.nanoTime() - start) / 1e6;
+        System.out.printf("files=%d threads=%d checkout=%.0fms back=%.0fms "
+                + "restore=%.0fms%n", n, Worktree.THREADS, there, back,
+                restore);
+        delete(Gitlet.GITLET_FILE);
+        Daemon.reload();
+    }
+
+    /** Start N processes that each make COMMITS commits of their own
+     *  files under DIR to a new repository at once, each with a batch
+     *  that adds a file and commits it, and check that the history of
+     *  the head holds every one of them. */
+    private static void stress(File dir, int n, int commits)
+            throws IOException {
+        Gitlet.init();
+        dir.mkdirs();
+        String java = Utils.join(System.getProperty("java.home"), "bin",
+                "java").getPath();
+        String classpath = System.getProperty("java.class.path");
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        ArrayList<Thread> committers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int k = 0; k < n; k += 1) {
+            int committer = k;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < commits; i += 1) {
+                    String name = dir.getName() + "/" + committer + "-" + i;
+                    try {
+                        Files.writeString(Utils.join(Gitlet.CWD_FOLD, name)
+                                .toPath(), name);
+                        Process gitlet = new ProcessBuilder(java, "-cp",
+                                classpath, "gitlet.Main", "batch")
+                                .redirectErrorStream(true).start();
+                        gitlet.getOutputStream().write(("add " + name
+                                + "\ncommit " + name + "\n").getBytes());
+                        gitlet.getOutputStream().close();
+                        String out = new String(
+                                gitlet.getInputStream().readAllBytes());
+                        if (gitlet.waitFor() != 0 || !out.isEmpty()) {
+                            errors.add(name + ": " + out.trim());
+                        }
+                    } catch (IOException | InterruptedException excp) {
+                        errors.add(name + ": " + excp);
+                    }
+                }
+            });
+            thread.start();
+            committers.add(thread);
+        }
+        for (Thread thread : committers) {
+            try {
+                thread.join();
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException(excp);
+            }
+        }
+        double time = (System.nanoTime() - start) / 1e6;
+        Daemon.reload();
+        int made = -1;
+        Commit commit = Utils.readObject(Head.HEAD_FILE, Head.class)
+                .getCurrentCommit();
+        for (File c = commit.getcommitFile(); c != null;
+             c = Commit.read(c).getParent()) {
+            made += 1;
+        }
+        System.out.printf("committers=%d commits=%d/%d errors=%d "
+                + "time=%.0fms%n", n, made, n * commits, errors.size(), time);
+        for (String error : errors) {
+            System.out.println(error);
+        }
+        delete(Gitlet.GITLET_FILE);
+        Daemon.reload();
+    }
+
+    /** Time making N commits of a file under DIR in a new repository,
+     *  reporting the mean time of each commit over every BLOCK of them,
+     *  which does not grow with the history. */
+    private static void commit(File dir, int n, int block)
+            throws IOException {
+        Gitlet.init();
+        dir.mkdirs();
+        String name = dir.getName() + "/file.txt";
+        File file = Utils.join(Gitlet.CWD_FOLD, name);
+        long start = System.nanoTime();
+        for (int i = 1; i <= n; i += 1) {
+            Files.writeString(file.toPath(), "version " + i);
+            Gitlet.add(name);
+            Gitlet.commit("version " + i, null);
+            Utils.sync();
+            if (i % block == 0) {
+                System.out.printf("commits=%d add+commit=%.2fms "
+                        + "branch=%dB reflog=%dB%n", i,
+                        (System.nanoTime() - start) / 1e6 / block,
+                        Branch.MASTER_FILE.length(),
+                        Utils.join(RefLog.LOG_FOLDER, "master").length());
+                start = System.nanoTime();
+            }
+        }
+        delete(Gitlet.GITLET_FILE);
+        Daemon.reload();
+    }
+
+    /** Write N new files under DIR, spread over directories of a
+     *  hundred files, without syncing them. */
+    private static void writeFiles(File dir, int n) throws IOException {
+        for (int i = 0; i < n; i += 1) {
+            File sub = Utils.join(dir, Integer.toString(i / 100));
+            if (i % 100 == 0) {
+                sub.mkdirs();
+            }
+            Files.writeString(Utils.join(sub, i + ".txt").toPath(),
+                    "file " + i);
+        }
+    }
+
+    /** Delete FILE and, if it is a directory, everything under it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Write the log of GRAPH from its commit TIP with OPTIONS to a
+     *  writer that discards it, as Gitlet.log does. */
+    private static void writeLog(CommitGraph graph, int tip,
+                                 String... options) {
+        LogWriter out = LogWriter.open(Writer.nullWriter(), options);
+        for (int k = tip; k >= 0; k = graph.parent(k)) {
+            if (!out.write(graph.id(k), graph.timestamp(k),
+                    graph.message(k))) {
+                break;
+            }
+        }
+        out.close();
+    }
+
+    /** Return the mean time of running BODY, in microseconds, over N
+     *  runs that follow N warm-up runs. */
+    private static double time(int n, Runnable body) {
+        for (int i = 0; i < n; i += 1) {
+            body.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i += 1) {
+            body.run();
+        }
+        return (System.nanoTime() - start) / 1e3 / n;
+    }
+
+    /** Append the synthetic commit number I with parents PARENT and
+     *  PARENT2 to GRAPH and return its id. */
+    private static String add(CommitGraph graph, int i, String parent,
+                              String parent2) {
+        String id = Utils.sha1("commit " + i + parent);
+        graph.append(id, parent, parent2, "Thu Jan 1 00:00:00 1970 +0000",
+                "commit " + i);
+        return id;
+    }
+}
@@ -1,34 +1,77 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /** This is Blob Class. Which we use it to store the contents of the file.
- * Blob File are all store in the .getlet/Blob directory.
+ * Blob File are all store in the .getlet/Blob directory, named by the
+ * SHA-1 of their raw bytes and sharded by its first two digits, so
+ * identical contents share one blob file.
+ * Contents are deflated on disk, or stored as they are after a RAW byte
+ * when deflating would not save an eighth of their size. Blob files are
+ * memory-mapped for reading: raw blobs are copied to the working file
+ * with FileChannel.transferTo, and deflated ones are inflated from the
+ * mapped file through one fixed-size buffer, so memory use does not
+ * depend on the size of the file.
  * @author Shantao Ru
  */
-public class Blob implements Serializable {
+public class Blob {
 
     /** File directory of this bolbs. */
     static final File BLOBSFOLDER = Utils.join(Gitlet.GITLET_FILE, "Bolbs");
 
-    /** Hashcode of this blob. */
+    /** Size of the chunks that blob contents are streamed in. */
+    static final int CHUNK = 1 << 16;
+
+    /** First byte of a blob stored without compression. A zlib stream
+     *  never starts with it. */
+    private static final byte RAW = 0;
+
+    /** Hashcode of this blob, the SHA-1 of its contents. */
     private String hashcode;
 
-    /** Contents of this blob. */
-    private String contents;
+    /** Working file this blob was created from. */
+    private File source;
 
     /** File of this blob. */
     private File bolbFile;
 
-    /** Constructor of Bolb class.
+    /** Constructor of Bolb class for a file whose SHA-1 is not known
+     * yet. It is computed when the blob is written.
      * @param file the file to create blob.
      */
     public Blob(File file) {
-        contents = Utils.readContentsAsString(file);
-        hashcode = Integer.toString(contents.hashCode());
-        bolbFile = Utils.join(BLOBSFOLDER, hashcode);
+        this(file, null);
+    }
+
+    /** Constructor of Bolb class for a file whose SHA-1 is known.
+     * @param file the file to create blob.
+     * @param sha1 the SHA-1 of the contents of file, or null.
+     */
+    public Blob(File file, String sha1) {
+        source = file;
+        hashcode = sha1;
+        bolbFile = sha1 == null ? null : file(hashcode);
     }
 
     /** Init the bold directory. */
@@ -38,12 +81,70 @@ public class Blob implements Serializable {
         }
     }
 
-    /** Write this bold to file. */
-    public void writeBold() throws IOException {
-        if (!bolbFile.exists()) {
-            bolbFile.createNewFile();
+    /** Write this bold to file, unless its SHA-1 is known and a blob
+     *  with the same contents has already been written. The working
+     *  file is read once: the bytes that are deflated are the bytes
+     *  that are hashed, and the blob is named after them once they are
+     *  written, so a file edited meanwhile is never stored under the id
+     *  of other contents. The compressed contents go to a temporary
+     *  file first so a partial blob never appears under its final
+     *  name. */
+    public void writeBold() {
+        if (bolbFile != null && exists(bolbFile)) {
+            return;
+        }
+        File temp = null;
+        File raw = null;
+        try {
+            temp = File.createTempFile("blob", null, BLOBSFOLDER);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size;
+            Deflater deflater = new Deflater();
+            try (InputStream in = new DigestInputStream(
+                    new FileInputStream(source), md);
+                 OutputStream out = new DeflaterOutputStream(
+                         new FileOutputStream(temp), deflater, CHUNK)) {
+                size = copy(in, out);
+            } finally {
+                deflater.end();
+            }
+            hashcode = Utils.toHex(md.digest());
+            bolbFile = file(hashcode);
+            if (exists(bolbFile)) {
+                return;
+            }
+            File stored = temp;
+            if (temp.length() > size - size / 8) {
+                raw = File.createTempFile("blob", null, BLOBSFOLDER);
+                try (FileChannel out = FileChannel.open(raw.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    out.write(ByteBuffer.wrap(new byte[] {RAW}));
+                    inflate(Utils.map(temp, false), out);
+                }
+                stored = raw;
+            }
+            bolbFile.getParentFile().mkdir();
+            Files.move(stored.toPath(), bolbFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Utils.syncLater(bolbFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            for (File f : new File[] {temp, raw}) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
         }
-        Utils.writeObject(bolbFile, this);
+    }
+
+    /** Return the file of the blob with id ID.
+     * @param id SHA-1 of the contents of the blob.
+     */
+    static File file(String id) {
+        return Shards.file(BLOBSFOLDER, id);
     }
 
     /** Return blobFiles. */
@@ -51,18 +152,197 @@ public class Blob implements Serializable {
         return bolbFile;
     }
 
-    /** Return contents of the blob. */
-    public String getContents() {
-        return contents;
+    /** Return the contents stored in the blob file BLOBFILE. */
+    public static String readContents(File blobFile) {
+        return new String(readBytes(blobFile), StandardCharsets.UTF_8);
     }
 
-    /** Overwrite the blob to file.
+    /** Overwrite the blob stored in BLOBFILE to TARGET.
+     * @param blobFile blob file to restore from.
      * @param target targetFile to overwirte contents.
      * */
-    public void overwrite(File target) throws IOException {
-        if (!target.exists()) {
-            target.createNewFile();
+    public static void overwrite(File blobFile, File target) {
+        target.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (!blobFile.exists()) {
+                try (InputStream in = Pack.open(blobFile.getName())) {
+                    copy(in, Channels.newOutputStream(out));
+                }
+                return;
+            }
+            try (FileChannel in = FileChannel.open(blobFile.toPath(),
+                    StandardOpenOption.READ)) {
+                ByteBuffer first = ByteBuffer.allocate(1);
+                if (in.read(first, 0) == 1 && isRaw(first.flip())) {
+                    transfer(in, 1, in.size() - 1, out);
+                    return;
+                }
+            }
+            inflate(Utils.map(blobFile, false), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true if the blob file whose contents are DATA is stored
+     *  without compression. */
+    private static boolean isRaw(ByteBuffer data) {
+        return data.hasRemaining() && data.get(data.position()) == RAW;
+    }
+
+    /** Copy the LENGTH bytes of IN from POSITION on to OUT, letting the
+     *  operating system move them directly where it can. */
+    private static void transfer(FileChannel in, long position, long length,
+                                 FileChannel out) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long n = in.transferTo(position + done, length - done, out);
+            if (n <= 0) {
+                throw new IOException("short transfer");
+            }
+            done += n;
+        }
+    }
+
+    /** Inflate the deflated blob DATA into OUT, one CHUNK at a time. */
+    private static void inflate(ByteBuffer data, FileChannel out)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(chunk) == 0 && inflater.needsInput()) {
+                    throw new IOException("truncated blob");
+                }
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+                chunk.clear();
+            }
+        } catch (DataFormatException excp) {
+            throw new IOException("corrupt blob");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Return the whole uncompressed contents of BLOBFILE. */
+    static byte[] readBytes(File blobFile) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = open(blobFile)) {
+            copy(in, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the uncompressed size of BLOBFILE, loose or packed, or
+     *  a number larger than LIMIT if it is larger than LIMIT, reading
+     *  no further than that. */
+    static long size(File blobFile, long limit) {
+        try (InputStream in = open(blobFile)) {
+            long total = 0;
+            long n = 1;
+            while (total <= limit && n > 0) {
+                n = in.skip(limit + 1 - total);
+                total += n;
+            }
+            return total;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the packed blob ID to its loose file, so that it outlives
+     *  the pack. */
+    static void unpack(String id) throws IOException {
+        File temp = File.createTempFile("blob", null, BLOBSFOLDER);
+        try {
+            Deflater deflater = new Deflater();
+            try (InputStream in = Pack.open(id);
+                 OutputStream out = new DeflaterOutputStream(
+                         new FileOutputStream(temp), deflater, CHUNK)) {
+                copy(in, out);
+            } finally {
+                deflater.end();
+            }
+            File loose = file(id);
+            loose.getParentFile().mkdir();
+            Files.move(temp.toPath(), loose.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Utils.syncLater(loose);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** Return true if the blob BLOBFILE exists, loose or packed. */
+    static boolean exists(File blobFile) {
+        return blobFile.exists() || Pack.contains(blobFile.getName());
+    }
+
+    /** Return a stream of the uncompressed contents of BLOBFILE,
+     *  reading it from the pack if it is not a loose file. */
+    static InputStream open(File blobFile) throws IOException {
+        if (!blobFile.exists()) {
+            return Pack.open(blobFile.getName());
+        }
+        ByteBuffer data = Utils.map(blobFile, false);
+        if (isRaw(data)) {
+            data.position(data.position() + 1);
+            return new Utils.BufferInput(data);
+        }
+        return inflating(data);
+    }
+
+    /** Return a stream of the contents inflated from DATA. Closing it
+     *  ends its Inflater, which closing an InflaterInputStream does not
+     *  do for an Inflater it was given, so that its native memory is
+     *  not held until it is collected. */
+    static InputStream inflating(ByteBuffer data) {
+        return new InflaterInputStream(new Utils.BufferInput(data),
+                new Inflater(), CHUNK) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /** Return the SHA-1 of the contents of FILE, read in chunks. */
+    static String hash(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[CHUNK];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            return Utils.toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Copy everything from IN to OUT through a CHUNK-sized buffer.
+     *  Return the number of bytes copied. */
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[CHUNK];
+        long total = 0;
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+            total += n;
         }
-        Utils.writeContents(target, contents);
+        return total;
     }
 }
@@ -1,15 +1,21 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.Objects;
 
 /** This is the Branch class of the Gitlet.
  * This class will store in the branch directory.
  * .getlet/Branch
+ * A branch only holds the commit it points at, so saving it costs the
+ * same however long its history is; its moves are kept in its RefLog.
  * @author Shantao Ru
  * */
-public class Branch implements Serializable {
+public class Branch implements Codec.Encodable {
+
+    /** Java serialization version of the branches that held commit ids
+     *  and listed their commits. Migrate still reads them and drops the
+     *  list. */
+    private static final long serialVersionUID = -8057403202434242959L;
 
     /** The file of the branch directory. */
     static final File BRANCH_FILE = Utils.join(Gitlet.GITLET_FILE, "Branches");
@@ -17,26 +23,18 @@ public class Branch implements Serializable {
     /** Master branch file. */
     static final File MASTER_FILE = Utils.join(BRANCH_FILE, "master");
 
-    /** All commits of this branch (String CommitID). */
-    private LinkedList<File> commits;
-
-    /** Head Pointer of this branch. */
-    private File branchpointer;
+    /** commitID of the head Pointer of this branch. */
+    private String branchpointer;
 
     /** Name of this branch. */
     private String name;
 
-    /** File of this branch. */
-    private File branchFile;
-
     /** Constructor for Branch class.
      * @param nameBranch name of the given branch
      * @param branchPointer name of the give pointer. */
     public Branch(String nameBranch, File branchPointer) {
-        branchFile = Utils.join(BRANCH_FILE, nameBranch);
         name = nameBranch;
-        branchpointer = branchPointer;
-        commits = new LinkedList<>();
+        branchpointer = Commit.idOf(branchPointer);
     }
 
     /** Init for branch file directory. */
@@ -48,13 +46,13 @@ public class Branch implements Serializable {
 
     /** Return branch pointer. */
     public File getBranchpointer() {
-        return branchpointer;
+        return Commit.file(branchpointer);
     }
 
     /** Change branch pointer.
      * @param newPointer file of the given new pointer.*/
     public void changeBranchpointer(File newPointer) {
-        branchpointer = newPointer;
+        branchpointer = Commit.idOf(newPointer);
     }
 
     /** Return the name of this branch. */
@@ -64,24 +62,60 @@ public class Branch implements Serializable {
 
     /** Return head Commit. */
     public Commit getHeadCommit() {
-        if (branchpointer.exists()) {
-            Commit commit = Utils.readObject(branchpointer, Commit.class);
+        File commitFile = getBranchpointer();
+        if (Commit.exists(commitFile)) {
+            Commit commit = Commit.read(commitFile);
             return commit;
         } else {
             throw new GitletException("Head Commit does not exists.");
         }
     }
 
+    @Override
+    public int type() {
+        return Codec.BRANCH;
+    }
 
-    /** Add commit to the current branch.
-     * @param commitFile file of the commit to add. */
-    public void addCommit(File commitFile) {
-        branchpointer = commitFile;
-        commits.add(commitFile);
+    @Override
+    public void encode(Codec.Writer out) {
+        out.string(name);
+        out.optionalID(branchpointer);
     }
 
-    /** Save this branch. */
-    public void save() {
-        Utils.writeObject(branchFile, this);
+    /** Return the branch whose fields are read from IN. Branches
+     * written in version 1 of the format list the commits of the branch
+     * after its pointer; they are skipped.
+     * @param in reader of an encoded branch */
+    static Branch decode(Codec.Reader in) {
+        Branch result = new Branch(in.string(), null);
+        result.branchpointer = in.optionalID();
+        if (in.version() < 2) {
+            for (int n = in.varint(); n > 0; n -= 1) {
+                in.id();
+            }
+        }
+        return result;
+    }
+
+    /** Save this branch if its file still points at the commit EXPECTED,
+     * as it did when this branch was read, or does not exist if EXPECTED
+     * is null, and record the move in its RefLog. Otherwise throw a
+     * GitletException rather than lose the commits of whatever moved it.
+     * @param expected file of the commit the branch pointed at, or null
+     *                 for a new branch. */
+    public void save(File expected) {
+        File file = Utils.join(BRANCH_FILE, name);
+        String oldID = Commit.idOf(expected);
+        String current = null;
+        if (file.exists()) {
+            ObjectCache.remove(file);
+            current = Utils.readObject(file, Branch.class).branchpointer;
+        }
+        if (!Objects.equals(oldID, current)) {
+            throw new GitletException("Branch " + name
+                    + " was moved by another process.");
+        }
+        Utils.writeObject(file, this);
+        RefLog.append(name, oldID, branchpointer);
     }
 }
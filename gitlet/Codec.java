@@ -0,0 +1,215 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** The binary format of the commit, tree, branch, head and stage files.
+ *  Each file starts with the magic bytes "GLT", a type byte and the
+ *  format version as a varint, followed by the fields of the object.
+ *  Integers are unsigned varints, strings and lists are prefixed with
+ *  their lengths, and ids are stored as their 20 raw bytes.
+ *
+ *  Files written with Java serialization, which start with 0xACED, are
+ *  still read by Utils.readObject, and the migrate command rewrites
+ *  them in this format.
+ *  @author Shantao Ru
+ */
+class Codec {
+
+    /** Version of the format written by this gitlet. Version 2 drops
+     *  the list of commits that branches of version 1 end with. */
+    static final int VERSION = 2;
+
+    /** Type byte of a commit. */
+    static final int COMMIT = 1;
+
+    /** Type byte of a tree. */
+    static final int TREE = 2;
+
+    /** Type byte of a branch. */
+    static final int BRANCH = 3;
+
+    /** Type byte of the head. */
+    static final int HEAD = 4;
+
+    /** Type byte of the stage. */
+    static final int STAGE = 5;
+
+    /** First bytes of every encoded file. */
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+
+    /** An object with an encoding in this format. */
+    interface Encodable extends Serializable {
+
+        /** Return the type byte of this object. */
+        int type();
+
+        /** Write the fields of this object to OUT. */
+        void encode(Writer out);
+    }
+
+    /** Return the encoding of OBJ, with its header. */
+    static byte[] encode(Encodable obj) {
+        Writer out = new Writer();
+        out.write(MAGIC, MAGIC.length);
+        out.write(obj.type());
+        out.varint(VERSION);
+        obj.encode(out);
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+
+    /** Return true if DATA starts like a file in this format. */
+    static boolean isEncoded(ByteBuffer data) {
+        if (data.remaining() < MAGIC.length + 1) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (data.get(data.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the object encoded in DATA. */
+    static Serializable decode(ByteBuffer data) {
+        try {
+            data.position(data.position() + MAGIC.length);
+            int type = data.get();
+            Reader in = new Reader(data);
+            if (in.version > VERSION) {
+                throw Utils.error("Repository written by a newer gitlet.");
+            }
+            switch (type) {
+            case COMMIT:
+                return Commit.decode(in);
+            case TREE:
+                return Tree.decode(in);
+            case BRANCH:
+                return Branch.decode(in);
+            case HEAD:
+                return Head.decode(in);
+            case STAGE:
+                return Stage.decode(in);
+            default:
+                throw Utils.error("Unknown object type %d.", type);
+            }
+        } catch (BufferUnderflowException excp) {
+            throw Utils.error("Truncated object file.");
+        }
+    }
+
+    /** Writes the fields of an object. */
+    static class Writer {
+
+        /** The encoding so far, in its first SIZE bytes. */
+        private byte[] bytes = new byte[256];
+
+        /** Length of the encoding so far. */
+        private int size;
+
+        /** Write the byte B. */
+        private void write(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * size);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        /** Write the first N bytes of DATA. */
+        private void write(byte[] data, int n) {
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length,
+                        size + n));
+            }
+            System.arraycopy(data, 0, bytes, size, n);
+            size += n;
+        }
+
+        /** Write the unsigned VALUE. */
+        void varint(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        /** Write the string S, which must not be null. */
+        void string(String s) {
+            byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            varint(data.length);
+            write(data, data.length);
+        }
+
+        /** Write the id ID, which must not be null. */
+        void id(String id) {
+            byte[] bytes = Utils.idBytes(id);
+            write(bytes, bytes.length);
+        }
+
+        /** Write the id ID, which may be null. */
+        void optionalID(String id) {
+            write(id == null ? 0 : 1);
+            if (id != null) {
+                id(id);
+            }
+        }
+    }
+
+    /** Reads the fields of an object. */
+    static class Reader {
+
+        /** The rest of the encoding. */
+        private final ByteBuffer buf;
+
+        /** Version of the format it was written in. */
+        private final int version;
+
+        /** A reader of the fields in BUF0, which starts with the
+         *  version. */
+        Reader(ByteBuffer buf0) {
+            buf = buf0;
+            version = varint();
+        }
+
+        /** Return the version of the format being read. */
+        int version() {
+            return version;
+        }
+
+        /** Read an unsigned varint. */
+        int varint() {
+            int result = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = buf.get();
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+        }
+
+        /** Read a string. */
+        String string() {
+            byte[] data = new byte[varint()];
+            buf.get(data);
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        /** Read an id. */
+        String id() {
+            String result = Utils.idAt(buf, buf.position());
+            buf.position(buf.position() + Utils.ID_BYTES);
+            return result;
+        }
+
+        /** Read an id that may be null. */
+        String optionalID() {
+            return buf.get() == 0 ? null : id();
+        }
+    }
+}
@@ -4,16 +4,26 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 
 /** This is the Commit class of the gitlet.
  * Commits were store under the directory
- * .getlet/Commit, filename will be their commidID
+ * .getlet/Commit, filename will be their commidID, in a shard
+ * directory named by its first two digits
  * @author Shantao Ru
  */
-public class Commit implements Serializable {
+public class Commit implements Codec.Encodable {
+
+    /** Java serialization version of the commits that held their tree
+     *  and parents as ids, before the Codec format, so that migrate can
+     *  still read them. Commits of the first gitlet go through Legacy. */
+    private static final long serialVersionUID = -5825442054998960780L;
 
     /** directory of commit file. */
     static final File COMMIT_FILE = Utils.join(Gitlet.GITLET_FILE, "commit");
@@ -24,16 +34,22 @@ public class Commit implements Serializable {
     /** Message for this commit. */
     private String message = new String();
 
-    /** Hashmap that hold the commit files bolb hashcode.
+    /** Id of the root tree of this commit. */
+    private String tree = Tree.EMPTY_ID;
+
+    /** The commit files flattened from the tree, read on first use.
      * HashMap<FileName, BoldFile>
      */
-    private HashMap<String, File> files = new HashMap<>();
+    private transient HashMap<String, File> files;
 
-    /** parent of this commit. */
-    private File parent = null;
+    /** commitID of this commit, once it is known. */
+    private transient String id;
 
-    /** parent 2 of this commit. */
-    private File parent2 = null;
+    /** commitID of the parent of this commit. */
+    private String parent = null;
+
+    /** commitID of the parent 2 of this commit. */
+    private String parent2 = null;
 
     /** Constructor of commit class.
      * @param gievnMessage commit message
@@ -42,7 +58,7 @@ public class Commit implements Serializable {
      * */
     public Commit(String gievnMessage, String giveTime, File gievnParent) {
         message = gievnMessage;
-        parent = gievnParent;
+        parent = idOf(gievnParent);
         timestamp = giveTime;
     }
 
@@ -53,25 +69,94 @@ public class Commit implements Serializable {
         }
         String initTime = "Thu Jan 1 00:00:00 1970 +0000";
         Commit initCommit = new Commit("initial commit", initTime, null);
-        String sha1Code = Utils.sha1(Utils.serialize(initCommit));
-        File initCommitFile = Utils.join(COMMIT_FILE, sha1Code);
+        Tree.init();
+        String sha1Code = initCommit.commitID();
+        File initCommitFile = Shards.create(COMMIT_FILE, sha1Code);
+        MessageIndex messages = MessageIndex.get();
         Utils.writeObject(initCommitFile, initCommit);
+        CommitGraph.get().append(sha1Code, null, null, initTime,
+                initCommit.getMessage());
+        PrefixIndex.get().add(sha1Code);
+        messages.add(sha1Code, initCommit.getMessage());
         Branch master = new Branch("master", initCommitFile);
-        Utils.writeObject(Branch.MASTER_FILE, master);
+        master.save(null);
         Head head = new Head(Branch.MASTER_FILE, initCommitFile);
         head.save();
     }
 
-    /** Return the tracking file of this commit. */
+    /** Return the commit stored at COMMITFILE, whose commitID is
+     * the name of the file.
+     * @param commitFile file of the commit
+     * */
+    static Commit read(File commitFile) {
+        Commit result = Utils.readObject(commitFile, Commit.class);
+        result.id = commitFile.getName();
+        return result;
+    }
+
+    /** Return true if the commit stored at COMMITFILE exists,
+     *  either as a loose file or in the pack. */
+    static boolean exists(File commitFile) {
+        return commitFile.exists() || Pack.contains(commitFile.getName());
+    }
+
+    /** Return the ids of all commits, loose and packed, in sorted order. */
+    static List<String> allIDs() {
+        TreeSet<String> ids = new TreeSet<>(Pack.ids(Pack.COMMIT));
+        ids.addAll(Shards.list(COMMIT_FILE));
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public int type() {
+        return Codec.COMMIT;
+    }
+
+    @Override
+    public void encode(Codec.Writer out) {
+        out.string(timestamp);
+        out.string(message);
+        out.id(tree);
+        out.optionalID(parent);
+        out.optionalID(parent2);
+    }
+
+    /** Return the commit whose fields are read from IN.
+     * @param in reader of an encoded commit
+     * */
+    static Commit decode(Codec.Reader in) {
+        String time = in.string();
+        Commit result = new Commit(in.string(), time, null);
+        result.tree = in.id();
+        result.parent = in.optionalID();
+        result.parent2 = in.optionalID();
+        return result;
+    }
+
+    /** Return the tracking file of this commit, by path. */
     public HashMap<String, File> getFiles() {
+        if (files == null) {
+            HashMap<String, File> result = new HashMap<>();
+            for (Map.Entry<String, String> e : Tree.flatten(tree).entrySet()) {
+                result.put(e.getKey(), Blob.file(e.getValue()));
+            }
+            files = result;
+        }
         return files;
     }
 
-    /** Add tracking files to the commit.
-     * @param newfiles files form the stage to add.
+    /** Return the id of the root tree of this commit. */
+    public String getTree() {
+        return tree;
+    }
+
+    /** Set the root tree of the commit.
+     * @param treeID id of the root tree.
      * */
-    public void addFiles(HashMap<String, File> newfiles) {
-        files = newfiles;
+    public void changeTree(String treeID) {
+        tree = treeID;
+        files = null;
+        id = null;
     }
 
     /** Return timestamp in string format. */
@@ -82,9 +167,15 @@ public class Commit implements Serializable {
         return time.format(date) + " -0800";
     }
 
-    /** Return sha1 commitID. */
+    /** Return sha1 commitID, the SHA-1 of the Codec encoding of this
+     * commit, computed once. A commit read from its file takes the id
+     * from the file name instead, so commits written in older formats
+     * keep their ids. */
     public String commitID() {
-        return Utils.sha1(Utils.serialize(this));
+        if (id == null) {
+            id = Utils.sha1(Codec.encode(this));
+        }
+        return id;
     }
 
     /** Return commit message of this commit. */
@@ -92,45 +183,70 @@ public class Commit implements Serializable {
         return message;
     }
 
-    /** Return log information of this commit. */
-    public String log() {
-        String output = "===\n";
-        output += "commit " + commitID() + "\n";
-        output += "Date: " + timestamp + "\n";
-        output += message + "\n";
-        return output;
+    /** Return timestamp of this commit. */
+    public String getDate() {
+        return timestamp;
     }
 
     /** Return parent of this commit. */
     public File getParent() {
-        return parent;
+        return file(parent);
     }
 
     /** Return parent2 of this commit. */
     public File getParent2() {
-        return parent2;
+        return file(parent2);
     }
 
     /** Change parent2 of this commit.
      * @param file add parent2 file to commit.
      * */
     public void changeParent2(File file) {
-        parent2 = file;
+        parent2 = idOf(file);
+        id = null;
+    }
+
+    /** Return the file of the commit with ID, or null if ID is null.
+     * Only ids are stored, so the repository can be moved.
+     * @param id commitID of the commit
+     * */
+    static File file(String id) {
+        return id == null ? null : Shards.file(COMMIT_FILE, id);
+    }
+
+    /** Return the commitID stored in COMMITFILE, or null if it is null.
+     * @param commitFile file of the commit
+     * */
+    static String idOf(File commitFile) {
+        return commitFile == null ? null : commitFile.getName();
     }
 
     /** Return commitFile of this file. */
     public File getcommitFile() {
-        return Utils.join(COMMIT_FILE, commitID());
+        return file(commitID());
+    }
+
+    /** Return the blob id of FILENAME in this commit, or null if it is
+     * not tracked. Unless the files were already flattened, only the
+     * trees on its path are read.
+     * @param filename path of the file
+     * */
+    public String blobID(String filename) {
+        if (files != null) {
+            File blob = files.get(filename);
+            return blob == null ? null : blob.getName();
+        }
+        return Tree.lookup(tree, filename);
     }
 
     /** Return require blob files stored in files.
      * @param filename filename of the given blob
      * */
     public File getBlob(String filename) {
-        if (!files.containsKey(filename)) {
+        if (!getFiles().containsKey(filename)) {
             System.out.println("File does not exist in that commit.");
             System.out.println(0);
         }
-        return files.get(filename);
+        return getFiles().get(filename);
     }
 }
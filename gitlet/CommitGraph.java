@@ -0,0 +1,351 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/** The commit graph of gitlet, which lets log and merge walk the
+ *  history without deserializing whole commits.
+ *  .gitlet/commit-graph holds a header ("CGPH", version) and one
+ *  fixed-size record per commit, in the order they were made: the
+ *  20-byte id, the positions of both parents (-1 for none), the
+ *  generation number and the offset of the commit's timestamp and
+ *  message in .gitlet/commit-data. A parent always comes before its
+ *  children, so the generation of a commit is one more than the
+ *  largest generation of its parents. Records are only appended; a
+ *  record left partly written by a crash, or whose data was, is
+ *  ignored, and the next commit is written over it.
+ *  @author Shantao Ru
+ */
+class CommitGraph {
+
+    /** Commit graph file of the repository. */
+    static final File GRAPH_FILE = Utils.join(Gitlet.GITLET_FILE,
+            "commit-graph");
+
+    /** Timestamps and messages of the commits in the graph. */
+    static final File DATA_FILE = Utils.join(Gitlet.GITLET_FILE,
+            "commit-data");
+
+    /** Magic number of the graph file. */
+    private static final int MAGIC = 0x43475048;
+
+    /** Version of the graph format. */
+    private static final int VERSION = 1;
+
+    /** Size of the graph header. */
+    private static final int HEADER = 8;
+
+    /** Size of one commit record. */
+    private static final int RECORD = 40;
+
+    /** Graph of the repository, once it has been loaded. */
+    private static CommitGraph repo;
+
+    /** The graph file. */
+    private final File graphFile;
+
+    /** The data file. */
+    private final File dataFile;
+
+    /** Mapped graph file, or null if it needs to be mapped. */
+    private MappedByteBuffer graph;
+
+    /** Mapped data file, or null if it needs to be mapped. */
+    private MappedByteBuffer data;
+
+    /** Number of commits in the graph. */
+    private int size;
+
+    /** Position of each commit id, built the first time it is needed. */
+    private HashMap<String, Integer> positions;
+
+    /** A graph stored in GRAPH and DATA. */
+    CommitGraph(File graph, File data) {
+        graphFile = graph;
+        dataFile = data;
+        size = (int) Math.max(0, (graph.length() - HEADER) / RECORD);
+        while (size > 0 && dataEnd(size - 1) > data().limit()) {
+            size -= 1;
+        }
+    }
+
+    /** Return the graph of the repository, building it from the
+     *  commits if the repository does not have one yet. The graph is
+     *  built holding the Lock, so that commands that only read the
+     *  repository do not build it at the same time. */
+    static CommitGraph get() {
+        if (repo == null) {
+            if (!GRAPH_FILE.exists() || !DATA_FILE.exists()) {
+                try (Lock lock = Lock.acquire()) {
+                    if (!GRAPH_FILE.exists() || !DATA_FILE.exists()) {
+                        rebuild();
+                    }
+                }
+            }
+            repo = new CommitGraph(GRAPH_FILE, DATA_FILE);
+        }
+        return repo;
+    }
+
+    /** Forget the graph of the repository, so that it is read again. */
+    static void reset() {
+        repo = null;
+    }
+
+    /** Write a new graph of all commits in the repository, oldest
+     *  first, each after its parents, as they were made. The graph
+     *  is written to temporary files that are then renamed, the data
+     *  first, so a command reading it without the Lock never sees part
+     *  of a graph. */
+    static void rebuild() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String id : Commit.allIDs()) {
+            commits.put(id, Commit.read(Commit.file(id)));
+        }
+        File graphTemp = null;
+        File dataTemp = null;
+        try {
+            graphTemp = File.createTempFile(".commit-graph.", ".tmp",
+                    Gitlet.GITLET_FILE);
+            dataTemp = File.createTempFile(".commit-data.", ".tmp",
+                    Gitlet.GITLET_FILE);
+            CommitGraph graph = new CommitGraph(graphTemp, dataTemp);
+            ArrayList<String> ids = new ArrayList<>(commits.keySet());
+            ids.sort(Comparator.comparing(
+                    id -> LogWriter.time(commits.get(id).getDate()),
+                    Comparator.nullsFirst(Comparator.naturalOrder())));
+            for (String id : ids) {
+                graph.addAll(id, commits);
+            }
+            GRAPH_FILE.delete();
+            Utils.rename(dataTemp, DATA_FILE);
+            Utils.rename(graphTemp, GRAPH_FILE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            for (File f : new File[] {graphTemp, dataTemp}) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+        }
+        repo = new CommitGraph(GRAPH_FILE, DATA_FILE);
+    }
+
+    /** Add ID and its ancestors from COMMITS, parents first, unless
+     *  they are already in the graph. */
+    private void addAll(String id, HashMap<String, Commit> commits) {
+        ArrayList<String> stack = new ArrayList<>();
+        stack.add(id);
+        while (!stack.isEmpty()) {
+            String top = stack.get(stack.size() - 1);
+            if (find(top) >= 0) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            Commit c = commits.get(top);
+            String p1 = name(c.getParent());
+            String p2 = name(c.getParent2());
+            if (p1 != null && find(p1) < 0) {
+                stack.add(p1);
+            } else if (p2 != null && find(p2) < 0) {
+                stack.add(p2);
+            } else {
+                stack.remove(stack.size() - 1);
+                append(top, p1, p2, c.getDate(), c.getMessage());
+            }
+        }
+    }
+
+    /** Return the name of FILE, or null if FILE is null. */
+    private static String name(File file) {
+        return file == null ? null : file.getName();
+    }
+
+    /** Add the commit ID with parents PARENT and PARENT2 (either may
+     *  be null), made at TIMESTAMP with MESSAGE, to the end of the
+     *  graph unless it is already there. */
+    void append(String id, String parent, String parent2,
+                String timestamp, String message) {
+        if (find(id) >= 0) {
+            return;
+        }
+        int p1 = parent == null ? -1 : find(parent);
+        int p2 = parent2 == null ? -1 : find(parent2);
+        int generation = 1;
+        if (p1 >= 0) {
+            generation = Math.max(generation, generation(p1) + 1);
+        }
+        if (p2 >= 0) {
+            generation = Math.max(generation, generation(p2) + 1);
+        }
+        long offset = size == 0 ? 0 : dataEnd(size - 1);
+        graph = null;
+        data = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, timestamp);
+            writeString(out, message);
+            Utils.appendContents(dataFile, offset, bytes.toByteArray());
+            bytes.reset();
+            if (size == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(Utils.idBytes(id));
+            out.writeInt(p1);
+            out.writeInt(p2);
+            out.writeInt(generation);
+            out.writeLong(offset);
+            Utils.appendContents(graphFile,
+                    size == 0 ? 0 : HEADER + (long) size * RECORD,
+                    bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (positions != null) {
+            positions.put(id, size);
+        }
+        size += 1;
+    }
+
+    /** Write S to OUT as a length and its UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Return the position of the commit ID, or -1 if it is not in
+     *  the graph. */
+    int find(String id) {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int k = 0; k < size; k += 1) {
+                positions.put(id(k), k);
+            }
+        }
+        Integer k = positions.get(id);
+        return k == null ? -1 : k;
+    }
+
+    /** Return the id of the K-th commit. */
+    String id(int k) {
+        return Utils.idAt(graph(), HEADER + k * RECORD);
+    }
+
+    /** Return the position of the first parent of the K-th commit,
+     *  or -1 if it has none. */
+    int parent(int k) {
+        return graph().getInt(HEADER + k * RECORD + Utils.ID_BYTES);
+    }
+
+    /** Return the position of the second parent of the K-th commit,
+     *  or -1 if it has none. */
+    int parent2(int k) {
+        return graph().getInt(HEADER + k * RECORD + Utils.ID_BYTES + 4);
+    }
+
+    /** Return the generation number of the K-th commit. */
+    int generation(int k) {
+        return graph().getInt(HEADER + k * RECORD + Utils.ID_BYTES + 8);
+    }
+
+    /** Return the timestamp of the K-th commit. */
+    String timestamp(int k) {
+        return string(dataOffset(k));
+    }
+
+    /** Return the message of the K-th commit. */
+    String message(int k) {
+        long offset = dataOffset(k);
+        return string(offset + 4 + data().getInt((int) offset));
+    }
+
+    /** Return the ids of the commits whose message satisfies MATCHES,
+     *  in sorted order. The messages are read straight from the data
+     *  file, by several threads at once. */
+    List<String> search(Predicate<String> matches) {
+        graph();
+        data();
+        return IntStream.range(0, size).parallel()
+                .filter(k -> matches.test(message(k)))
+                .mapToObj(this::id).sorted()
+                .collect(Collectors.toList());
+    }
+
+    /** Return the offset of the data of the K-th commit. */
+    private long dataOffset(int k) {
+        return graph().getLong(HEADER + k * RECORD + Utils.ID_BYTES + 12);
+    }
+
+    /** Return the end of the data of the K-th commit in the data file,
+     *  or Long.MAX_VALUE if it is not all there. */
+    private long dataEnd(int k) {
+        MappedByteBuffer buf = data();
+        long end = dataOffset(k);
+        for (int i = 0; i < 2; i += 1) {
+            if (end < 0 || end + 4 > buf.limit()
+                    || buf.getInt((int) end) < 0) {
+                return Long.MAX_VALUE;
+            }
+            end += 4 + buf.getInt((int) end);
+        }
+        return end;
+    }
+
+    /** Return the string stored at OFFSET of the data file. */
+    private String string(long offset) {
+        MappedByteBuffer buf = data();
+        byte[] bytes = new byte[buf.getInt((int) offset)];
+        buf.get((int) offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the mapped graph file. */
+    private MappedByteBuffer graph() {
+        if (graph == null) {
+            graph = map(graphFile);
+        }
+        return graph;
+    }
+
+    /** Return the mapped data file. */
+    private MappedByteBuffer data() {
+        if (data == null) {
+            data = map(dataFile);
+        }
+        return data;
+    }
+
+    /** Return FILE mapped read-only. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
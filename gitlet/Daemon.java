@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** A long-lived gitlet process that runs the commands of one
+ *  repository, so that they share a warm JVM, the object cache and the
+ *  loaded commit graph and indexes. "gitlet daemon" serves the
+ *  repository in the current directory on the Unix domain socket
+ *  .gitlet/daemon.sock until "gitlet daemon stop". While it runs, Main
+ *  forwards every command to it.
+ *
+ *  A request is the arguments of a command, each followed by a NUL
+ *  byte, ended by shutting down the output of the connection, so
+ *      printf '%s\0' status | nc -UN .gitlet/daemon.sock
+ *  is also a client. The reply is the output of the command, ended by
+ *  closing the connection. Commands run one at a time. After each one
+ *  the daemon forgets the cached head, stage, branches and index, and
+ *  after a failed one, or when another process has changed the
+ *  repository, it forgets everything it has loaded.
+ *  @author Shantao Ru
+ */
+class Daemon {
+
+    /** Socket of the daemon of the repository. */
+    static final File SOCKET_FILE = Utils.join(Gitlet.GITLET_FILE,
+            "daemon.sock");
+
+    /** Files whose size and modification time tell whether another
+     *  process has changed the repository. Branches are replaced by
+     *  renaming, which changes the time of their directory. */
+    private static final File[] STATE = {
+        Head.HEAD_FILE, Stage.STAGE_FILE, Index.INDEX_FILE,
+        CommitGraph.GRAPH_FILE, Pack.INDEX_FILE, Branch.BRANCH_FILE,
+    };
+
+    /** Largest request accepted, in bytes. */
+    private static final int MAX_REQUEST = 1 << 20;
+
+    /** Size of the reply buffer. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Run the daemon command ARGS outside of a daemon: "daemon" serves
+     *  the repository, while "daemon stop" only gets here when no daemon
+     *  answered. */
+    static void command(String... args) throws IOException {
+        if (args.length == 1) {
+            serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            throw new GitletException("No daemon is running.");
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+    }
+
+    /** Send ARGS to the daemon of the repository and copy its reply to
+     *  the standard output. Return false if no daemon is running. */
+    static boolean forward(String... args) {
+        if (!SOCKET_FILE.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            for (String arg : args) {
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(request.toByteArray());
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Serve the repository in the current directory until a
+     *  "daemon stop" request. */
+    static void serve() throws IOException {
+        Gitlet.checkInit();
+        SOCKET_FILE.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            long[] stamp = stamp();
+            while (stamp != null) {
+                try (SocketChannel client = server.accept()) {
+                    stamp = handle(read(client), client, stamp);
+                } catch (IOException excp) {
+                    reload();
+                }
+            }
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Run the command ARGS, sending its output to CLIENT, after
+     *  forgetting everything loaded if the repository no longer has the
+     *  STAMP it had after the last command. A command that changes the
+     *  repository takes its Lock before the check and returns the stamp
+     *  it leaves, taken before the Lock is released, so that no change
+     *  of another process is taken for its own. A command that only
+     *  reads returns the stamp it checked. Return the stamp to check
+     *  before the next command, or null if it was "daemon stop". */
+    private static long[] handle(String[] args, SocketChannel client,
+                                 long[] stamp) {
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), BUFFER), false,
+                Charset.defaultCharset());
+        System.setOut(out);
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                if (args.length == 2 && args[1].equals("stop")) {
+                    return null;
+                }
+                throw new GitletException("A daemon is already running.");
+            }
+            try (Lock lock = Main.locks(args) ? Lock.acquire() : null) {
+                long[] now = stamp();
+                if (!Arrays.equals(stamp, now)) {
+                    reload();
+                }
+                Main.run(args);
+                ObjectCache.retain(Commit.class, Tree.class);
+                return lock == null ? now : stamp();
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            reload();
+        } catch (IOException | RuntimeException excp) {
+            System.out.println(excp);
+            reload();
+        } finally {
+            out.flush();
+            System.setOut(stdout);
+        }
+        return stamp();
+    }
+
+    /** Return the arguments of the request from CLIENT. */
+    private static String[] read(SocketChannel client) throws IOException {
+        InputStream in = Channels.newInputStream(client);
+        byte[] request = in.readNBytes(MAX_REQUEST + 1);
+        if (request.length > MAX_REQUEST) {
+            throw new IOException("request too large");
+        }
+        ArrayList<String> args = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < request.length; i += 1) {
+            if (request[i] == 0) {
+                args.add(new String(request, start, i - start,
+                        StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Return the sizes and modification times of the STATE files. */
+    private static long[] stamp() {
+        long[] result = new long[2 * STATE.length];
+        for (int i = 0; i < STATE.length; i += 1) {
+            result[2 * i] = STATE[i].length();
+            result[2 * i + 1] = STATE[i].lastModified();
+        }
+        return result;
+    }
+
+    /** Forget everything loaded from the repository, so that the next
+     *  command reads it again. */
+    static void reload() {
+        ObjectCache.clear();
+        CommitGraph.reset();
+        MergeBase.reset();
+        PrefixIndex.reset();
+        MessageIndex.reset();
+        Pack.reset();
+    }
+}
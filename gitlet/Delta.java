@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a file, used by the pack
+ *  file to store a blob as the changes against a similar base blob.
+ *  A delta is the length of the base and the target followed by a
+ *  sequence of COPY (offset, length) instructions that copy a range
+ *  of the base and INSERT (length, bytes) instructions that add
+ *  literal bytes. All numbers are unsigned varints.
+ *  @author Shantao Ru
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Instruction that copies a range of the base. */
+    private static final int COPY = 1;
+
+    /** Instruction that inserts literal bytes. */
+    private static final int INSERT = 0;
+
+    /** Return a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(blockHash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int pending = 0;
+        int i = 0;
+        while (i < target.length) {
+            Integer start = null;
+            if (i + BLOCK <= target.length) {
+                start = blocks.get(blockHash(target, i));
+            }
+            int length = 0;
+            if (start != null) {
+                while (start + length < base.length
+                        && i + length < target.length
+                        && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+            }
+            if (length < BLOCK) {
+                i += 1;
+                continue;
+            }
+            insert(out, target, pending, i);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, length);
+            i += length;
+            pending = i;
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the target rebuilt by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] target = new byte[readVarint(delta, pos)];
+        int size = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int start = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, start, target, size, length);
+                size += length;
+            } else {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, size, length);
+                pos[0] += length;
+                size += length;
+            }
+        }
+        return target;
+    }
+
+    /** Write an INSERT of TARGET[FROM..TO) to OUT, if it is not empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Return a hash of the BLOCK bytes of DATA starting at START. */
+    private static int blockHash(byte[] data, int start) {
+        int h = 1;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    /** Write the non-negative VALUE to OUT as an unsigned varint. */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read an unsigned varint from DATA at POS[0], advancing POS[0]. */
+    static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -2,14 +2,22 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 
 /** This is the main class of the gitlet.
  * This class take args from the main method and
  * operate correspond command base on the args.
+ * Errors are thrown as a GitletException whose message is the error
+ * to print, so commands can also run inside a long-lived daemon.
  * @author Shantao Ru */
 public class Gitlet {
 
@@ -22,9 +30,8 @@ public class Gitlet {
     /** The init method of gitlet, create a repo in CWD. */
     public static void init() throws IOException {
         if (GITLET_FILE.exists()) {
-            System.out.println("A Gitlet version-control system already "
-                   + "exists in the current directory.");
-            System.exit(0);
+            throw new GitletException("A Gitlet version-control system "
+                    + "already exists in the current directory.");
         }
         GITLET_FILE.mkdir();
         Head.init();
@@ -35,36 +42,55 @@ public class Gitlet {
         Stage.init();
     }
 
-    /** The add command for gitlet.
-     * @param filename name of file to be add */
-    public static void add(String filename) throws IOException {
+    /** The add command for gitlet. Each of ARGS is a file, a directory
+     * (such as ".") standing for the files under it, or a glob pattern.
+     * Files are hashed in parallel, and the stage is written once.
+     * @param args paths of files to be add */
+    public static void add(String... args) throws IOException {
         checkInit();
-        File newFile = Utils.join(CWD_FOLD, filename);
-        if (!newFile.exists()) {
-            System.out.println("File does not exists");
-            System.exit(0);
+        TreeSet<String> filenames = new TreeSet<>();
+        List<String> workFiles = null;
+        for (String arg : args) {
+            String filename = Worktree.path(arg);
+            File newFile = Utils.join(CWD_FOLD, filename);
+            if (newFile.isFile()) {
+                filenames.add(filename);
+                continue;
+            }
+            List<String> found;
+            if (newFile.isDirectory()) {
+                found = Worktree.files(filename);
+            } else if (Worktree.isPattern(arg)) {
+                if (workFiles == null) {
+                    workFiles = Worktree.files();
+                }
+                found = Worktree.glob(filename, workFiles);
+            } else {
+                found = new ArrayList<>();
+            }
+            found.removeIf(Gitlet::ignore);
+            if (found.isEmpty()) {
+                throw new GitletException("File does not exists");
+            }
+            filenames.addAll(found);
         }
-        Blob newBolb = new Blob(newFile);
-        File blobFile = newBolb.getBlobFiles();
+        Index index = Index.load();
+        TreeMap<String, Blob> blobs =
+                Worktree.store(new ArrayList<>(filenames), index);
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
-        if (!stage.contain(filename)) {
-            newBolb.writeBold();
-        }
-        if (stage.getRemovefiles().containsKey(filename)) {
-            stage.getRemovefiles().remove(filename);
-        }
-        stage.addFile(filename, blobFile);
-
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Commit lastCommit = head.getCurrentCommit();
-        if (lastCommit.getFiles().containsKey(filename)) {
-            File lastBlobFile = lastCommit.getBlob(filename);
-            Blob lastBlob = Utils.readObject(lastBlobFile, Blob.class);
-            if (lastBlob.getContents().equals(newBolb.getContents())) {
+        for (Map.Entry<String, Blob> e : blobs.entrySet()) {
+            String filename = e.getKey();
+            File blobFile = e.getValue().getBlobFiles();
+            stage.getRemovefiles().remove(filename);
+            stage.addFile(filename, blobFile);
+            if (blobFile.getName().equals(lastCommit.blobID(filename))) {
                 stage.getAddingfiles().remove(filename);
             }
         }
         Utils.writeObject(Stage.STAGE_FILE, stage);
+        index.save();
     }
 
     /** This is the commit method.
@@ -73,8 +99,7 @@ public class Gitlet {
     public static void commit(String message, File parent) throws IOException {
         checkInit();
         if (message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         }
 
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
@@ -82,57 +107,83 @@ public class Gitlet {
 
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
         File headPointer = curBranch.getBranchpointer();
-        Commit lastCommit = Utils.readObject(headPointer, Commit.class);
+        Commit lastCommit = Commit.read(headPointer);
         if (stage.isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw new GitletException("No changes added to the commit.");
         }
-        HashMap<String, File> files = lastCommit.getFiles();
+        Index index = Index.load();
+        HashMap<String, String> changes = new HashMap<>();
         for (String f : stage.getAddingfiles().keySet()) {
             File addFile = Utils.join(CWD_FOLD, f);
             File blobFile = stage.getBoldfile(f);
             if (!addFile.exists()) {
-                Blob b = Utils.readObject(blobFile, Blob.class);
-                b.overwrite(addFile);
+                Blob.overwrite(blobFile, addFile);
+                index.record(f, addFile, blobFile.getName());
             }
-            files.put(f, stage.getBoldfile(f));
+            changes.put(f, blobFile.getName());
         }
-        for (String f : stage.getRemovefiles().keySet()) {
-            File rmFile = Utils.join(CWD_FOLD, f);
-            Utils.restrictedDelete(rmFile);
-            files.remove(f);
+        for (String f : stage.getRemovefiles()) {
+            if (Utils.join(CWD_FOLD, f).isFile()) {
+                Worktree.delete(f);
+            }
+            index.remove(f);
+            changes.put(f, null);
         }
         Commit newCommit = new Commit(message,
                 Commit.getTimestamp(), headPointer);
         if (parent != null) {
             newCommit.changeParent2(parent);
         }
-        newCommit.addFiles(files);
+        newCommit.changeTree(Tree.update(lastCommit.getTree(), changes));
         String newCommitID = newCommit.commitID();
-        File newCommitFile = Utils.join(Commit.COMMIT_FILE, newCommitID);
+        File newCommitFile = Shards.create(Commit.COMMIT_FILE, newCommitID);
         head.changeCommit(newCommitFile);
-        curBranch.addCommit(newCommitFile);
+        curBranch.changeBranchpointer(newCommitFile);
         stage.clearStage();
+        MessageIndex messages = MessageIndex.get();
         Utils.writeObject(newCommitFile, newCommit);
+        CommitGraph.get().append(newCommitID, headPointer.getName(),
+                parent == null ? null : parent.getName(),
+                newCommit.getDate(), message);
+        PrefixIndex.get().add(newCommitID);
+        messages.add(newCommitID, message);
+        curBranch.save(headPointer);
         Utils.writeObject(Stage.STAGE_FILE, stage);
-        curBranch.save();
+        index.save();
         head.save();
     }
 
     /** This is the log command
      * it read head form the head file.
-     * iterate all parents from that commit. */
-    public static void log() {
+     * iterate all parents from that commit in the commit graph,
+     * stopping as soon as the limits in OPTIONS are reached.
+     * @param options -n, --skip and --since limits */
+    public static void log(String... options) {
         checkInit();
+        LogWriter out = openLog(options);
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Branch currentBranch = head.getCurrentBranch();
         File headPointer = currentBranch.getBranchpointer();
-        while (headPointer != null) {
-            Commit current = Utils.readObject(headPointer, Commit.class);
-            System.out.println(current.log());
-            headPointer = current.getParent();
+        CommitGraph graph = CommitGraph.get();
+        for (int k = graph.find(headPointer.getName()); k >= 0;
+             k = graph.parent(k)) {
+            if (!out.write(graph.id(k), graph.timestamp(k),
+                    graph.message(k))) {
+                break;
+            }
         }
+        out.close();
+    }
 
+    /** Return a log writer with the limits in OPTIONS, or throw a
+     * GitletException if they are malformed.
+     * @param options -n, --skip and --since limits */
+    private static LogWriter openLog(String... options) {
+        LogWriter out = LogWriter.open(options);
+        if (out == null) {
+            throw new GitletException("Incorrect operands.");
+        }
+        return out;
     }
 
     /** This is the normal checkout method.
@@ -142,12 +193,11 @@ public class Gitlet {
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Commit headCommit = head.getCurrentCommit();
         File targetFile = Utils.join(CWD_FOLD, filename);
-        if (!targetFile.exists()) {
-            targetFile.createNewFile();
-        }
         File blobFile = headCommit.getBlob(filename);
-        Blob lastBlob = Utils.readObject(blobFile, Blob.class);
-        Utils.writeContents(targetFile, lastBlob.getContents());
+        Blob.overwrite(blobFile, targetFile);
+        Index index = Index.load();
+        index.record(filename, targetFile, blobFile.getName());
+        index.save();
     }
 
     /** Commit chekcout method.
@@ -155,38 +205,37 @@ public class Gitlet {
      * @param filename filename of the restore file. */
     public static void commitCheckout(String commitID, String filename) {
         checkInit();
-        String fullID = commitID;
-        if (commitID.length() == 8) {
-            fullID = getFullid(commitID);
-        }
+        String fullID = getFullid(commitID);
         File targetFile = Utils.join(CWD_FOLD, filename);
-        File commitFile = Utils.join(Commit.COMMIT_FILE, fullID);
-        if (!commitFile.exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        File commitFile = Commit.file(fullID);
+        if (!Commit.exists(commitFile)) {
+            throw new GitletException("No commit with that id exists.");
         }
-        Commit commit = Utils.readObject(commitFile, Commit.class);
+        Commit commit = Commit.read(commitFile);
         if (!commit.getFiles().containsKey(filename)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
         File blobFile = commit.getBlob(filename);
-        Blob blob = Utils.readObject(blobFile, Blob.class);
-        Utils.writeContents(targetFile, blob.getContents());
+        Blob.overwrite(blobFile, targetFile);
+        Index index = Index.load();
+        index.record(filename, targetFile, blobFile.getName());
+        index.save();
     }
 
-    /** A helper method that find out full uid base on short uid.
+    /** A helper method that find out full uid base on short uid,
+     * which must be at least PrefixIndex.MIN_PREFIX digits long.
      * @param commitID short-uid
-     * @return full-uid */
+     * @return full-uid, or COMMITID itself if no commit starts with it */
     public static String getFullid(String commitID) {
-        List<String> allCommits = Utils.plainFilenamesIn(Commit.COMMIT_FILE);
-        for (int i = 0; i < allCommits.size(); i++) {
-            String name = allCommits.get(i);
-            if (name.contains(commitID)) {
-                return name;
-            }
+        if (commitID.length() < PrefixIndex.MIN_PREFIX
+                || commitID.length() >= Utils.UID_LENGTH) {
+            return commitID;
+        }
+        List<String> matches = PrefixIndex.get().resolve(commitID, 2);
+        if (matches.size() > 1) {
+            throw new GitletException("Ambiguous commit id; use more digits.");
         }
-        return new String();
+        return matches.isEmpty() ? commitID : matches.get(0);
     }
 
     /** Branch checkout method, reset the cwd to given branch pointer.
@@ -195,20 +244,17 @@ public class Gitlet {
         checkInit();
         File targetBranchFile = Utils.join(Branch.BRANCH_FILE, branchname);
         if (!targetBranchFile.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw new GitletException("No such branch exists.");
         }
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Branch targetBranch = Utils.readObject(targetBranchFile, Branch.class);
         Branch curBranch = head.getCurrentBranch();
         if (targetBranch.getName().equals(curBranch.getName())) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw new GitletException(
+                    "No need to checkout the current branch.");
         }
         File branchCommitFile = targetBranch.getBranchpointer();
-        Commit branchCommit = Utils.readObject(branchCommitFile, Commit.class);
-        String commitID = branchCommit.commitID();
-        reset(commitID, false);
+        reset(branchCommitFile.getName(), false);
         head.changeBranch(targetBranchFile);
         head.changeCommit(branchCommitFile);
         head.save();
@@ -217,8 +263,16 @@ public class Gitlet {
     /** This method scan the cwd and return files that were untracked.
      * @param commit head commit of gitlet. */
     public static ArrayList<String> untrackFiles(Commit commit) {
+        return untrackFiles(commit, Worktree.files());
+    }
+
+    /** Return the files among the working files CWDFILES that are
+     * untracked.
+     * @param commit head commit of gitlet.
+     * @param cwdFiles the working files, as returned by Worktree.files. */
+    static ArrayList<String> untrackFiles(Commit commit,
+                                          List<String> cwdFiles) {
         HashMap<String, File> commitFiles = commit.getFiles();
-        List<String> cwdFiles = Utils.plainFilenamesIn(CWD_FOLD);
         ArrayList<String> untrackFiles = new ArrayList<>();
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
         for (int i = 0; i < cwdFiles.size(); i++) {
@@ -238,44 +292,42 @@ public class Gitlet {
         return untrackFiles;
     }
 
-    /** Reset method that set the cwd as the given commit.
+    /** Reset method that set the cwd as the given commit. Only the
+     * files that differ from the commit are written or deleted; with
+     * -Dgitlet.checkoutStats=true, their number is printed to the
+     * standard error.
      * @param commitID uid of the commit
      * @param isReset if it is call from the main method. */
     public static void reset(String commitID,
                              boolean isReset) throws IOException {
-        File commitFile = Utils.join(Commit.COMMIT_FILE, commitID);
-        if (!commitFile.exists()) {
-            System.out.println("No commit with that id exists");
-            System.exit(0);
+        File commitFile = Commit.file(getFullid(commitID));
+        if (!Commit.exists(commitFile)) {
+            throw new GitletException("No commit with that id exists");
         }
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        HashMap<String, File> commitFiles = commit.getFiles();
-        ArrayList<String> untrackFiles = untrackFiles(head.getCurrentCommit());
-        if (!untrackFiles.isEmpty()) {
-            System.out.println("There is an untracked file in the way; "
+        Commit commit = Commit.read(commitFile);
+        Commit lastCommit = head.getCurrentCommit();
+        List<String> files = Worktree.files();
+        if (!untrackFiles(lastCommit, files).isEmpty()) {
+            throw new GitletException("There is an untracked file in the way; "
                   +  "delete it, or add and commit it first.");
-            System.exit(0);
         }
-        List<String> files = Utils.plainFilenamesIn(CWD_FOLD);
-        for (int i = 0; i < files.size(); i++) {
-            String filename = files.get(i);
-            if (!commitFiles.containsKey(filename) && !ignore(filename)) {
-                Utils.restrictedDelete(filename);
-            }
-        }
-        for (String s : commitFiles.keySet()) {
-            Blob blob = Utils.readObject(commitFiles.get(s),
-                    Blob.class);
-            blob.overwrite(Utils.join(CWD_FOLD, s));
+        Index index = Index.load();
+        int touched = Worktree.checkout(lastCommit, commit, files, index);
+        index.save();
+        if (Boolean.getBoolean("gitlet.checkoutStats")) {
+            System.err.printf("checkout: %d files touched%n", touched);
         }
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
         stage.clearStage();
         Utils.writeObject(Stage.STAGE_FILE, stage);
         if (isReset) {
             Branch branch = head.getCurrentBranch();
+            File oldPointer = branch.getBranchpointer();
             branch.changeBranchpointer(commitFile);
-            branch.save();
+            branch.save(oldPointer);
+            head.changeCommit(commitFile);
+            head.save();
         }
     }
 
@@ -284,23 +336,25 @@ public class Gitlet {
     public static void removeBranch(String branchName) {
         File branchFile = Utils.join(Branch.BRANCH_FILE, branchName);
         if (!branchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException(
+                    "A branch with that name does not exist.");
         }
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Branch curBranch = head.getCurrentBranch();
         Branch rmBranch = Utils.readObject(branchFile, Branch.class);
         if (rmBranch.getName().equals(curBranch.getName())) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw new GitletException("Cannot remove the current branch.");
         }
         branchFile.delete();
+        ObjectCache.remove(branchFile);
+        RefLog.delete(branchName);
     }
 
     /** Determine if the filename should be ignore in untrackfiles.
-     * @param filename name of the file
+     * @param path path of the file, whose last name is checked
      * @return true if it should ignore, false otherwise */
-    public static boolean ignore(String filename) {
+    public static boolean ignore(String path) {
+        String filename = path.substring(path.lastIndexOf('/') + 1);
         if (filename.equals(".DS_Store")) {
             return true;
         } else if (filename.equals(".gitignore")) {
@@ -330,28 +384,68 @@ public class Gitlet {
         }
 
         System.out.println("\n=== Staged Files ===");
-        for (String a : stage.getAddingfiles().keySet()) {
+        for (String a : new TreeSet<>(stage.getAddingfiles().keySet())) {
             System.out.println(a);
         }
         System.out.println("\n=== Removed Files ===");
-        for (String r : stage.getRemovefiles().keySet()) {
+        for (String r : new TreeSet<>(stage.getRemovefiles())) {
             System.out.println(r);
         }
 
         System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (String m : modifiedFiles(head.getCurrentCommit(), stage)) {
+            System.out.println(m);
+        }
         System.out.println("\n=== Untracked Files ===\n");
 
     }
 
-    /** Display of all commits in the history.
-     * Iterate all file in .getlet/Commit */
-    public static void globallog() {
-        List<String> commits = Utils.plainFilenamesIn(Commit.COMMIT_FILE);
-        for (int i = 0; i < commits.size(); i++) {
-            File f = Utils.join(Commit.COMMIT_FILE, commits.get(i));
-            Commit c = Utils.readObject(f, Commit.class);
-            System.out.println(c.log());
+    /** Return the tracked files whose working copies differ from what
+     * is staged or committed, marked as modified or deleted.
+     * @param commit head commit of gitlet
+     * @param stage stage of gitlet
+     * @return sorted lines of the modifications section of status */
+    public static List<String> modifiedFiles(Commit commit, Stage stage) {
+        TreeMap<String, File> tracked = new TreeMap<>(commit.getFiles());
+        for (String name : stage.getAddingfiles().keySet()) {
+            tracked.put(name, stage.getBoldfile(name));
+        }
+        ArrayList<String> present = new ArrayList<>();
+        for (String name : tracked.keySet()) {
+            if (Utils.join(CWD_FOLD, name).exists()) {
+                present.add(name);
+            }
+        }
+        Index index = Index.load();
+        TreeMap<String, String> ids = Worktree.hash(present, index);
+        index.save();
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : tracked.keySet()) {
+            if (stage.getRemovefiles().contains(name)) {
+                continue;
+            } else if (!ids.containsKey(name)) {
+                result.add(name + " (deleted)");
+            } else if (!ids.get(name).equals(tracked.get(name).getName())) {
+                result.add(name + " (modified)");
+            }
+        }
+        return result;
+    }
+
+    /** Display of all commits in the history, newest first.
+     * Iterate all commits in the commit graph, stopping as soon as the
+     * limits in OPTIONS are reached.
+     * @param options -n, --skip and --since limits */
+    public static void globallog(String... options) {
+        LogWriter out = openLog(options).anyOrder();
+        CommitGraph graph = CommitGraph.get();
+        for (int k = graph.size() - 1; k >= 0; k -= 1) {
+            if (!out.write(graph.id(k), graph.timestamp(k),
+                    graph.message(k))) {
+                break;
+            }
         }
+        out.close();
     }
 
     /** Create new branch in the current gitlet.
@@ -361,53 +455,108 @@ public class Gitlet {
         Branch curBranch = head.getCurrentBranch();
         File newBranchFile = Utils.join(Branch.BRANCH_FILE, branchName);
         if (newBranchFile.exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw new GitletException(
+                    "A branch with that name already exists.");
         }
         Branch newBranch = new Branch(branchName, curBranch.getBranchpointer());
-        newBranch.save();
+        newBranch.save(null);
     }
 
-    /** remove the given branch if it exists.
-     * @param filename name of the remove branch */
-    public static void remove(String filename) {
-        File rmFile = Utils.join(CWD_FOLD, filename);
+    /** remove the given files if they are staged or tracked. Each of
+     * ARGS is a file, a directory standing for the staged and tracked
+     * files under it, or a glob pattern matching them. Nothing is
+     * removed unless every argument names such a file, and the stage is
+     * written once.
+     * @param args paths of the files to remove */
+    public static void remove(String... args) {
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Commit lastCommit = head.getCurrentCommit();
-        HashMap<String, File> stageFiles = stage.getAddingfiles();
-        HashMap<String, File> commitFiles = lastCommit.getFiles();
-
-        if (stageFiles.containsKey(filename)) {
-            stageFiles.remove(filename);
-        } else if (commitFiles.containsKey(filename)) {
-            stage.addrmFile(filename, rmFile);
-            if (rmFile.exists()) {
-                Utils.restrictedDelete(rmFile);
+        HashMap<String, String> stageFiles = stage.getAddingfiles();
+        TreeSet<String> filenames = new TreeSet<>();
+        TreeSet<String> known = null;
+        for (String arg : args) {
+            String filename = Worktree.path(arg);
+            if (stageFiles.containsKey(filename)
+                    || lastCommit.blobID(filename) != null) {
+                filenames.add(filename);
+                continue;
+            }
+            if (known == null) {
+                known = new TreeSet<>(lastCommit.getFiles().keySet());
+                known.addAll(stageFiles.keySet());
+            }
+            List<String> found = Worktree.isPattern(arg)
+                    ? Worktree.glob(filename, known)
+                    : Worktree.under(filename, known);
+            if (found.isEmpty()) {
+                throw new GitletException("No reason to remove the file.");
+            }
+            filenames.addAll(found);
+        }
+        Index index = Index.load();
+        for (String filename : filenames) {
+            if (stageFiles.containsKey(filename)) {
+                stageFiles.remove(filename);
+            } else {
+                stage.addrmFile(filename);
+                if (Utils.join(CWD_FOLD, filename).isFile()) {
+                    Worktree.delete(filename);
+                }
+                index.remove(filename);
             }
-        } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
         }
+        index.save();
         Utils.writeObject(Stage.STAGE_FILE, stage);
     }
 
-    /** Find commit if it has the given message.
+    /** Find commit if it has the given message, through the message
+     * index.
      * @param message commit message to find */
     public static void find(String message) {
-        List<String> commits = Utils.plainFilenamesIn(Commit.COMMIT_FILE);
-        boolean isEmypty = true;
-        for (int i = 0; i < commits.size(); i++) {
-            File f = Utils.join(Commit.COMMIT_FILE, commits.get(i));
-            Commit c = Utils.readObject(f, Commit.class);
-            if (c.getMessage().equals(message)) {
-                System.out.println(c.commitID());
-                isEmypty = false;
-            }
+        printFound(MessageIndex.get().lookup(message));
+    }
+
+    /** Find commits whose message matches PATTERN in the way OPTION
+     * says: --word looks up a word in the message index, while
+     * --contains and --grep search the messages of all commits for a
+     * substring or a regular expression.
+     * @param option kind of search
+     * @param pattern word, substring or regular expression to find */
+    public static void find(String option, String pattern) {
+        List<String> commits;
+        if (option.equals("--word")) {
+            commits = MessageIndex.get().lookupWord(pattern);
+        } else if (option.equals("--contains")) {
+            commits = CommitGraph.get().search(m -> m.contains(pattern));
+        } else if (option.equals("--grep")) {
+            Pattern regex = compile(pattern);
+            commits = CommitGraph.get().search(m -> regex.matcher(m).find());
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+        printFound(commits);
+    }
+
+    /** Return the regular expression PATTERN compiled, or throw a
+     * GitletException if it is not valid.
+     * @param pattern regular expression */
+    private static Pattern compile(String pattern) {
+        try {
+            return Pattern.compile(pattern);
+        } catch (PatternSyntaxException excp) {
+            throw new GitletException("Invalid pattern.");
+        }
+    }
+
+    /** Print the ids of COMMITS, or an error if there are none.
+     * @param commits ids of the commits found */
+    private static void printFound(List<String> commits) {
+        if (commits.isEmpty()) {
+            throw new GitletException("Found no commit with that message.");
         }
-        if (isEmypty) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        for (String id : commits) {
+            System.out.println(id);
         }
     }
 
@@ -418,15 +567,18 @@ public class Gitlet {
         mergeCheck(targetBranchFile);
         Branch targetBranch = Utils.readObject(targetBranchFile, Branch.class);
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
-        Commit curHead = head.getCurrentCommit();
-        Commit bracHead = targetBranch.getHeadCommit();
-        Commit splitPoint = findSplitpoint(curHead, bracHead);
-        mergeSpecial(curHead, bracHead, splitPoint);
-        mergeFiles(splitPoint, curHead, bracHead);
-        String curBranchName = head.getCurrentBranch().getName();
+        Branch curBranch = head.getCurrentBranch();
+        File curFile = curBranch.getBranchpointer();
+        File bracFile = targetBranch.getBranchpointer();
+        File splitFile = findSplitpoint(curFile, bracFile);
+        if (mergeSpecial(curFile, bracFile, splitFile)) {
+            return;
+        }
+        mergeFiles(Commit.read(splitFile), Commit.read(curFile),
+                Commit.read(bracFile));
         String message = "Merged " + branchName
-                + " into " + curBranchName + ".";
-        commit(message, bracHead.getcommitFile());
+                + " into " + curBranch.getName() + ".";
+        commit(message, bracFile);
     }
 
     /** check if there are any false cases appeared.
@@ -434,96 +586,88 @@ public class Gitlet {
     public static void mergeCheck(File targetBranchFile) {
         checkInit();
         if (!targetBranchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException(
+                    "A branch with that name does not exist.");
         }
         Head head = Utils.readObject(Head.HEAD_FILE, Head.class);
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
         Branch targetBranch = Utils.readObject(targetBranchFile, Branch.class);
         if (head.getCurrentBranch().getName().equals(targetBranch.getName())) {
-            System.out.println("Cannot merge a branch with itself");
-            System.exit(0);
+            throw new GitletException("Cannot merge a branch with itself");
         }
         if (!stage.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw new GitletException("You have uncommitted changes.");
         }
         Commit curCommit = head.getCurrentCommit();
         ArrayList<String> untrackFiles = untrackFiles(curCommit);
         if (!untrackFiles.isEmpty()) {
-            System.out.println("There is an untracked file in the way;"
+            throw new GitletException("There is an untracked file in the way;"
                     + " delete it," + " or add and commit it first.");
-            System.exit(0);
-        }
-    }
-
-    /** Find the splitpoint of the two given commit.
-     * @param commit1 first commit
-     * @param commit2 second commit
-     * @return splitpoint commit, null if no splitpoint */
-    public static Commit findSplitpoint(Commit commit1, Commit commit2) {
-        Commit pointer1 = commit1;
-        Commit pointer2 = commit2;
-        while (pointer1.getParent() != null) {
-            pointer2 = commit2;
-            if (pointer1.getParent2() != null) {
-                pointer1 = Utils.readObject(
-                        pointer1.getParent2(), Commit.class);
-                return pointer1;
-            }
-            if (pointer1.commitID().equals(commit2.commitID())) {
-                return pointer1;
-            }
-            pointer1 = Utils.readObject(pointer1.getParent(), Commit.class);
-            while (pointer2.getParent() != null) {
-                pointer2 = Utils.readObject(pointer2.getParent(), Commit.class);
-                String id1 = pointer1.commitID();
-                String id2 = pointer2.commitID();
-                if (id1.equals(id2)) {
-                    return pointer1;
-                }
-                if (id2.equals(commit1.commitID())) {
-                    return pointer2;
-                }
-            }
         }
-        throw new GitletException("Can not find splitpoint");
+    }
+
+    /** Find the splitpoint of the two given commit in the commit graph.
+     * @param commit1 first commit file
+     * @param commit2 second commit file
+     * @return splitpoint commit file */
+    public static File findSplitpoint(File commit1, File commit2) {
+        CommitGraph graph = CommitGraph.get();
+        int split = MergeBase.get().best(graph.find(commit1.getName()),
+                graph.find(commit2.getName()));
+        if (split < 0) {
+            throw new GitletException("Can not find splitpoint");
+        }
+        return Commit.file(graph.id(split));
     }
 
     /** Special case that might encounter in merging branch.
-     * @param curCommit current commit
-     * @param brnCommit branch commit
-     * @param splitCommit split point commit */
-    public static void mergeSpecial(Commit curCommit,
-                                     Commit brnCommit,
-                                     Commit splitCommit) throws IOException {
-
-        if (splitCommit.commitID().equals(curCommit.commitID())) {
-            reset(brnCommit.commitID(), true);
+     * @param curCommit current commit file
+     * @param brnCommit branch commit file
+     * @param splitCommit split point commit file
+     * @return true if there is nothing left to merge */
+    public static boolean mergeSpecial(File curCommit,
+                                     File brnCommit,
+                                     File splitCommit) throws IOException {
+
+        if (splitCommit.equals(curCommit)) {
+            reset(brnCommit.getName(), true);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
-        } else if (splitCommit.commitID().equals(brnCommit.commitID())) {
+            return true;
+        } else if (splitCommit.equals(brnCommit)) {
             System.out.println("Given branch is an "
                     + "ancestor of the current branch.");
-            System.exit(0);
+            return true;
         }
+        return false;
     }
 
     /** Handle files during merge and clear the stage afterward.
+     * Only paths that changed on either side since the split point are
+     * looked at; the tree diffs skip directories neither side touched.
      * @param current current commit
      * @param other branch commit
      * @param split split point commit */
     public static void mergeFiles(
             Commit split, Commit current, Commit other) throws IOException {
-        HashMap<String, File> splitFiles = split.getFiles();
-        HashMap<String, File> currentFiles = current.getFiles();
-        HashMap<String, File> otherFiles = other.getFiles();
-        HashMap<String, File> allFiles = new HashMap<>();
-        allFiles.putAll(splitFiles);
-        allFiles.putAll(currentFiles);
-        allFiles.putAll(otherFiles);
+        TreeMap<String, String[]> curDiff =
+                Tree.diff(split.getTree(), current.getTree());
+        TreeMap<String, String[]> othDiff =
+                Tree.diff(split.getTree(), other.getTree());
+        TreeSet<String> allFiles = new TreeSet<>(curDiff.keySet());
+        allFiles.addAll(othDiff.keySet());
+        HashMap<String, File> splitFiles = new HashMap<>();
+        HashMap<String, File> currentFiles = new HashMap<>();
+        HashMap<String, File> otherFiles = new HashMap<>();
+        for (String s : allFiles) {
+            String[] cur = curDiff.get(s);
+            String[] oth = othDiff.get(s);
+            String base = cur != null ? cur[0] : oth[0];
+            putBlob(splitFiles, s, base);
+            putBlob(currentFiles, s, cur != null ? cur[1] : base);
+            putBlob(otherFiles, s, oth != null ? oth[1] : base);
+        }
         Stage stage = Utils.readObject(Stage.STAGE_FILE, Stage.class);
-        for (String s : allFiles.keySet()) {
+        for (String s : allFiles) {
             int num = caseIdentify(splitFiles, currentFiles, otherFiles, s);
             File targetFile = Utils.join(CWD_FOLD, s);
             File blobFile;
@@ -545,7 +689,7 @@ public class Gitlet {
                 stage.addFile(s, blobFile);
                 break;
             case 6:
-                stage.addrmFile(s, Utils.join(CWD_FOLD, s));
+                stage.addrmFile(s);
                 break;
             default:
                 break;
@@ -554,6 +698,18 @@ public class Gitlet {
         Utils.writeObject(Stage.STAGE_FILE, stage);
     }
 
+    /** Put the blob file of BLOB into FILES as FILENAME, unless BLOB
+     * is null.
+     * @param files map of tracked files
+     * @param filename path of the file
+     * @param blob blob id of the file, or null */
+    private static void putBlob(HashMap<String, File> files,
+                                String filename, String blob) {
+        if (blob != null) {
+            files.put(filename, Blob.file(blob));
+        }
+    }
+
      /** Handle mergeConflict if it happend
       * crate and write the conflict file into the cwd and
       * send message to the terminal.
@@ -566,17 +722,16 @@ public class Gitlet {
 
         String newContents = "<<<<<<< HEAD\n";
         if (curFiles.containsKey(filename)) {
-            Blob curBlob = Utils.readObject(curFiles.get(filename), Blob.class);
-            newContents += curBlob.getContents();
+            newContents += Blob.readContents(curFiles.get(filename));
         }
         newContents += "=======\n";
         if (othFiles.containsKey(filename)) {
-            Blob othBlob = Utils.readObject(othFiles.get(filename), Blob.class);
-            newContents += othBlob.getContents();
+            newContents += Blob.readContents(othFiles.get(filename));
         }
         newContents += ">>>>>>>\n";
         File targetFile = Utils.join(CWD_FOLD, filename);
-        Utils.writeContents(targetFile, newContents);
+        targetFile.getParentFile().mkdirs();
+        Files.writeString(targetFile.toPath(), newContents);
         add(filename);
         System.out.println("Encountered a merge conflict.");
     }
@@ -639,11 +794,58 @@ public class Gitlet {
         return file1.equals(file2);
     }
 
+    /** Pack loose commits and blobs into the pack file. */
+    public static void gc() throws IOException {
+        checkInit();
+        Pack.repack();
+    }
+
+    /** Convert the objects of a repository written by the first gitlet,
+     * move the loose objects of a repository with flat object
+     * directories into shards, rewrite the commits, trees, branches,
+     * head and stage of a repository written with Java serialization in
+     * the Codec format, repack the pack if there is one, and build the
+     * commit graph and the indexes if they are missing. */
+    public static void migrate() throws IOException {
+        checkInit();
+        Legacy.convert();
+        Shards.migrate(Commit.COMMIT_FILE);
+        Shards.migrate(Tree.TREE_FOLDER);
+        Shards.migrate(Blob.BLOBSFOLDER);
+        for (String id : Commit.allIDs()) {
+            rewrite(Commit.file(id), Commit.class);
+        }
+        for (String id : Tree.allIDs()) {
+            rewrite(Tree.file(id), Tree.class);
+        }
+        for (String name : Utils.plainFilenamesIn(Branch.BRANCH_FILE)) {
+            rewrite(Utils.join(Branch.BRANCH_FILE, name), Branch.class);
+        }
+        rewrite(Head.HEAD_FILE, Head.class);
+        rewrite(Stage.STAGE_FILE, Stage.class);
+        if (Pack.PACK_FILE.exists()) {
+            Pack.repack();
+        }
+        CommitGraph.get();
+        PrefixIndex.get();
+        MessageIndex.get();
+    }
+
+    /** Read the object in FILE and write it back in the Codec format.
+     * @param file file of the object
+     * @param type class of the object */
+    private static <T extends Codec.Encodable> void rewrite(File file,
+                                                          Class<T> type) {
+        T obj = Utils.readObject(file, type);
+        file.getParentFile().mkdir();
+        Utils.writeObject(file, obj);
+    }
+
     /** Check if the gitlet directory exists. */
     public static void checkInit() {
         if (!GITLET_FILE.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException(
+                    "Not in an initialized Gitlet directory.");
         }
     }
 
@@ -2,7 +2,6 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 
 
 /** This is the head class of gitlet.
@@ -10,23 +9,27 @@ import java.io.Serializable;
  * in to the file .getlet/head
  * @author Shantao Ru
  */
-public class Head implements Serializable {
+public class Head implements Codec.Encodable {
+
+    /** Java serialization version of the heads that named their branch
+     *  and commit rather than holding Files, which migrate still reads. */
+    private static final long serialVersionUID = 4476238702962601720L;
 
     /** headFile file. */
     static final File HEAD_FILE = Utils.join(Gitlet.GITLET_FILE, "head");
 
-    /** currentHeadBranch File. */
-    private File currentBranch;
+    /** Name of the current head branch. */
+    private String currentBranch;
 
-    /** currentHeadCommit File. */
-    private File currentCommit;
+    /** commitID of the current head commit. */
+    private String currentCommit;
 
     /** Constructor of this Head Class.
      * @param branch head branch
      * @param commit head commit */
     Head(File branch, File commit) {
-        currentBranch = branch;
-        currentCommit = commit;
+        currentBranch = branch.getName();
+        currentCommit = Commit.idOf(commit);
     }
 
     /** Init method for head. */
@@ -38,8 +41,9 @@ public class Head implements Serializable {
 
     /** Return current Branch File. */
     public Branch getCurrentBranch() {
-        if (currentBranch.exists()) {
-            Branch b = Utils.readObject(currentBranch, Branch.class);
+        File branchFile = Utils.join(Branch.BRANCH_FILE, currentBranch);
+        if (branchFile.exists()) {
+            Branch b = Utils.readObject(branchFile, Branch.class);
             return b;
         } else {
             throw new GitletException("Branch does not exists.");
@@ -48,8 +52,9 @@ public class Head implements Serializable {
 
     /** Return current Commit File. */
     public Commit getCurrentCommit() {
-        if (currentCommit.exists()) {
-            Commit c = Utils.readObject(currentCommit, Commit.class);
+        File commitFile = Commit.file(currentCommit);
+        if (Commit.exists(commitFile)) {
+            Commit c = Commit.read(commitFile);
             return c;
         } else {
             throw new GitletException("Commit does not exists.");
@@ -60,13 +65,33 @@ public class Head implements Serializable {
      * @param newBranch new branch of the gitlet
      * */
     public void changeBranch(File newBranch) {
-        currentBranch = newBranch;
+        currentBranch = newBranch.getName();
     }
 
     /** Change current Commit File.
      * @param newCommit new commmit head of gitlet */
     public void changeCommit(File newCommit) {
-        currentCommit = newCommit;
+        currentCommit = Commit.idOf(newCommit);
+    }
+
+    @Override
+    public int type() {
+        return Codec.HEAD;
+    }
+
+    @Override
+    public void encode(Codec.Writer out) {
+        out.string(currentBranch);
+        out.id(currentCommit);
+    }
+
+    /** Return the head whose fields are read from IN.
+     * @param in reader of an encoded head */
+    static Head decode(Codec.Reader in) {
+        Head result = new Head(Branch.MASTER_FILE, null);
+        result.currentBranch = in.string();
+        result.currentCommit = in.id();
+        return result;
     }
 
     /** Save itself to head file. */
@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** This is the index class of gitlet.
+ * The index remembers the size, modification time and inode of each
+ * working file when it was last hashed, together with its blob id,
+ * so status and add only re-hash files whose stat data has changed.
+ * It is stored in the file .gitlet/index.
+ * @author Shantao Ru
+ */
+public class Index implements Serializable {
+
+    /** Java serialization version of the index files written so far,
+     *  kept when methods are added so that they can still be read. */
+    private static final long serialVersionUID = 3388422677165005341L;
+
+    /** File of the index. */
+    static final File INDEX_FILE = Utils.join(Gitlet.GITLET_FILE, "index");
+
+    /** Files modified less than this long before the index was saved
+     *  are re-hashed, since the file system may not have been able to
+     *  tell a later change apart by its modification time. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Stat data and blob id of each working file, by filename. */
+    private HashMap<String, Entry> entries = new HashMap<>();
+
+    /** Time the index was last saved, in nanoseconds. */
+    private long savedAt;
+
+    /** True if entries changed since the index was read. */
+    private transient volatile boolean changed;
+
+    /** Return the index of the repository, or an empty index if it
+     *  has not been written yet. */
+    static Index load() {
+        if (!INDEX_FILE.exists() && !Utils.isDeferred(INDEX_FILE)) {
+            return new Index();
+        }
+        return Utils.readObject(INDEX_FILE, Index.class);
+    }
+
+    /** Return the blob id of the working file FILE named NAME. The
+     *  file is only hashed if its stat data does not match the index,
+     *  or if it was modified within RACY_NANOS of the last save.
+     *  Several threads may call this at once. */
+    String blobID(String name, File file) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(name);
+        }
+        Entry now = stat(file);
+        if (fresh(e, now)) {
+            return e.blob;
+        }
+        now.blob = Blob.hash(file);
+        put(name, now);
+        return now.blob;
+    }
+
+    /** Return the blob of the working file FILE named NAME, written to
+     *  the repository. A file whose stat data does not match the index
+     *  is read once, hashing the contents it stores, and the index
+     *  records the id of what was stored, with the stat data taken
+     *  before the read. Several threads may call this at once. */
+    Blob store(String name, File file) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(name);
+        }
+        Entry now = stat(file);
+        boolean fresh = fresh(e, now);
+        Blob blob = new Blob(file, fresh ? e.blob : null);
+        blob.writeBold();
+        now.blob = blob.getBlobFiles().getName();
+        if (!fresh || !now.blob.equals(e.blob)) {
+            put(name, now);
+        }
+        return blob;
+    }
+
+    /** Return true if the entry E of a file, which may be null, still
+     *  holds for the file whose stat data is NOW. */
+    private boolean fresh(Entry e, Entry now) {
+        return e != null && e.size == now.size && e.mtime == now.mtime
+                && e.inode == now.inode && e.mtime + RACY_NANOS < savedAt;
+    }
+
+    /** Record that the working file FILE named NAME holds BLOB. */
+    void record(String name, File file, String blob) {
+        Entry now = stat(file);
+        now.blob = blob;
+        put(name, now);
+    }
+
+    /** Set the entry of NAME to ENTRY. */
+    private synchronized void put(String name, Entry entry) {
+        entries.put(name, entry);
+        changed = true;
+    }
+
+    /** Forget the working file named NAME. */
+    synchronized void remove(String name) {
+        changed |= entries.remove(name) != null;
+    }
+
+    /** Save the index if it has changed, holding the Lock, unless
+     *  another process holds it: a command that only reads the
+     *  repository would then overwrite the index of a command that
+     *  changes it, and since the index is only a cache, a later
+     *  command hashes again what it leaves out. */
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        try (Lock lock = Lock.tryAcquire()) {
+            if (lock == null) {
+                return;
+            }
+            savedAt = TimeUnit.MILLISECONDS.toNanos(
+                    System.currentTimeMillis());
+            changed = false;
+            Utils.writeObject(INDEX_FILE, this);
+        }
+    }
+
+    /** Return the stat data of FILE, without a blob id. */
+    private static Entry stat(File file) {
+        Entry result = new Entry();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            result.size = attrs.size();
+            result.mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            Map<String, Object> unix = Files.readAttributes(file.toPath(),
+                    "unix:ino");
+            result.inode = (Long) unix.get("ino");
+        } catch (UnsupportedOperationException excp) {
+            result.inode = 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Stat data and blob id of one working file. */
+    private static class Entry implements Serializable {
+
+        /** Java serialization version of the entries written so far. */
+        private static final long serialVersionUID = -841023734358759770L;
+
+        /** Size of the file. */
+        private long size;
+
+        /** Modification time of the file, in nanoseconds. */
+        private long mtime;
+
+        /** Inode of the file, or 0 where there are none. */
+        private long inode;
+
+        /** Blob id of the contents of the file. */
+        private String blob;
+    }
+}
@@ -0,0 +1,275 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/** Converter of repositories written by the first gitlet, which kept
+ *  every object with Java serialization and referred to blobs, commits
+ *  and branches by absolute Files. Its blobs are serialized objects
+ *  holding the contents as a string, named by the hashCode of the
+ *  contents and stored directly in .gitlet/Bolbs; its commits hold a
+ *  map of the blob Files they track and are stored directly in
+ *  .gitlet/commit, named by the SHA-1 of their serialization.
+ *
+ *  The Old classes below have the fields and serialVersionUIDs of the
+ *  classes of the first gitlet. Java serialization refuses a local
+ *  class whose name differs from the class in the stream, so Input
+ *  replaces the stream descriptor of each old class by the descriptor
+ *  of its Old class, which reads the same fields, instead of mapping
+ *  the class in resolveClass.
+ *  @author Shantao Ru
+ */
+class Legacy {
+
+    /** Old classes by the name and serialVersionUID of the class of the
+     *  first gitlet that they read. */
+    private static final HashMap<String, Class<?>> OLD = new HashMap<>();
+
+    static {
+        OLD.put("gitlet.Blob:-851093517101830392", OldBlob.class);
+        OLD.put("gitlet.Branch:2270551034804714835", OldBranch.class);
+        OLD.put("gitlet.Commit:8026698671493697813", OldCommit.class);
+        OLD.put("gitlet.Head:-1472189065992247871", OldHead.class);
+        OLD.put("gitlet.Stage:963755374023598275", OldStage.class);
+    }
+
+    /** Convert the objects of the first gitlet in the repository in
+     *  place. Each blob is stored again under the SHA-1 of its contents,
+     *  each commit keeps its id and gets a tree of those blobs, and the
+     *  branches, head and stage refer to commits and blobs by id.
+     *  Objects in a later format are left alone, so a repository whose
+     *  conversion was interrupted can be converted again. */
+    static void convert() throws IOException {
+        HashMap<String, String> blobs = new HashMap<>();
+        for (String name : Utils.plainFilenamesIn(Blob.BLOBSFOLDER)) {
+            Object obj = name.length() == Utils.UID_LENGTH ? null
+                    : read(Utils.join(Blob.BLOBSFOLDER, name));
+            if (obj instanceof OldBlob) {
+                blobs.put(name, store(((OldBlob) obj).contents));
+            }
+        }
+        Tree.init();
+        for (String name : Utils.plainFilenamesIn(Commit.COMMIT_FILE)) {
+            File file = Utils.join(Commit.COMMIT_FILE, name);
+            Object obj = read(file);
+            if (obj instanceof OldCommit) {
+                Utils.writeObject(Shards.create(Commit.COMMIT_FILE, name),
+                        convert((OldCommit) obj, blobs));
+                file.delete();
+            }
+        }
+        for (String name : Utils.plainFilenamesIn(Branch.BRANCH_FILE)) {
+            Object obj = read(Utils.join(Branch.BRANCH_FILE, name));
+            if (obj instanceof OldBranch) {
+                File pointer = ((OldBranch) obj).branchpointer;
+                Utils.writeObject(Utils.join(Branch.BRANCH_FILE, name),
+                        new Branch(name, pointer));
+                if (RefLog.size(name) == 0) {
+                    RefLog.append(name, null, pointer.getName());
+                }
+            }
+        }
+        Object head = read(Head.HEAD_FILE);
+        if (head instanceof OldHead) {
+            OldHead old = (OldHead) head;
+            new Head(old.currentBranch, old.currentCommit).save();
+        }
+        Object stage = read(Stage.STAGE_FILE);
+        if (stage instanceof OldStage) {
+            OldStage old = (OldStage) stage;
+            Stage result = new Stage();
+            for (Map.Entry<String, File> e : old.addingfiles.entrySet()) {
+                result.addFile(e.getKey(),
+                        Blob.file(blob(blobs, e.getValue())));
+            }
+            for (String name : old.removefiles.keySet()) {
+                result.addrmFile(name);
+            }
+            Utils.writeObject(Stage.STAGE_FILE, result);
+        }
+        for (String name : blobs.keySet()) {
+            Utils.join(Blob.BLOBSFOLDER, name).delete();
+        }
+    }
+
+    /** Return the commit of the current format holding OLD, whose blobs
+     *  have the new ids in BLOBS. */
+    private static Commit convert(OldCommit old, Map<String, String> blobs) {
+        Commit result = new Commit(old.message, old.timestamp, old.parent);
+        HashMap<String, String> files = new HashMap<>();
+        if (old.files != null) {
+            for (Map.Entry<String, File> e : old.files.entrySet()) {
+                files.put(e.getKey(), blob(blobs, e.getValue()));
+            }
+        }
+        result.changeTree(Tree.update(null, files));
+        if (old.parent2 != null) {
+            result.changeParent2(old.parent2);
+        }
+        return result;
+    }
+
+    /** Return the new id in BLOBS of the old blob FILE. */
+    private static String blob(Map<String, String> blobs, File file) {
+        String id = blobs.get(file.getName());
+        if (id == null) {
+            throw Utils.error("Blob %s is missing.", file.getName());
+        }
+        return id;
+    }
+
+    /** Store CONTENTS as a blob and return its id. */
+    private static String store(String contents) throws IOException {
+        File temp = File.createTempFile("blob", null, Blob.BLOBSFOLDER);
+        try {
+            Files.write(temp.toPath(),
+                    contents.getBytes(StandardCharsets.UTF_8));
+            Blob blob = new Blob(temp);
+            blob.writeBold();
+            return blob.getBlobFiles().getName();
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** Return the object serialized in FILE, an object of an Old class
+     *  if it was written by the first gitlet, or null if FILE does not
+     *  exist or is in the Codec format. */
+    static Object read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer buf = Utils.map(file, false);
+        if (Codec.isEncoded(buf)) {
+            return null;
+        }
+        try (ObjectInputStream in = new Input(new Utils.BufferInput(buf))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads objects of the first gitlet as objects of the Old
+     *  classes, and objects of later formats as they are. */
+    private static class Input extends ObjectInputStream {
+
+        /** A stream reading objects from IN. */
+        Input(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> old = OLD.get(desc.getName() + ":"
+                    + desc.getSerialVersionUID());
+            return old == null ? desc : ObjectStreamClass.lookup(old);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            if (!name.startsWith("gitlet.") && !name.startsWith("java.")) {
+                throw new ClassNotFoundException("unexpected class "
+                        + name);
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    /** A blob of the first gitlet. */
+    private static class OldBlob implements Serializable {
+
+        /** Serialization version of the blobs of the first gitlet. */
+        private static final long serialVersionUID = -851093517101830392L;
+
+        /** Hashcode of the contents, the name of the blob file. */
+        private String hashcode;
+
+        /** Contents of the blob. */
+        private String contents;
+
+        /** File of the blob. */
+        private File bolbFile;
+    }
+
+    /** A branch of the first gitlet. */
+    private static class OldBranch implements Serializable {
+
+        /** Serialization version of the branches of the first gitlet. */
+        private static final long serialVersionUID = 2270551034804714835L;
+
+        /** Files of the commits of the branch. */
+        private LinkedList<File> commits;
+
+        /** File of the commit the branch points at. */
+        private File branchpointer;
+
+        /** Name of the branch. */
+        private String name;
+
+        /** File of the branch. */
+        private File branchFile;
+    }
+
+    /** A commit of the first gitlet. */
+    private static class OldCommit implements Serializable {
+
+        /** Serialization version of the commits of the first gitlet. */
+        private static final long serialVersionUID = 8026698671493697813L;
+
+        /** Timestamp of the commit. */
+        private String timestamp;
+
+        /** Message of the commit. */
+        private String message;
+
+        /** Blob file of each tracked file, by filename. */
+        private HashMap<String, File> files;
+
+        /** File of the parent, or null. */
+        private File parent;
+
+        /** File of the second parent of a merge, or null. */
+        private File parent2;
+    }
+
+    /** The head of the first gitlet. */
+    private static class OldHead implements Serializable {
+
+        /** Serialization version of the head of the first gitlet. */
+        private static final long serialVersionUID = -1472189065992247871L;
+
+        /** File of the current branch. */
+        private File currentBranch;
+
+        /** File of the current commit. */
+        private File currentCommit;
+    }
+
+    /** The stage of the first gitlet. */
+    private static class OldStage implements Serializable {
+
+        /** Serialization version of the stage of the first gitlet. */
+        private static final long serialVersionUID = 963755374023598275L;
+
+        /** Blob file of each added file, by filename. */
+        private HashMap<String, File> addingfiles;
+
+        /** Blob file of each removed file, by filename. */
+        private HashMap<String, File> removefiles;
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** The lock of a repository, the file .gitlet/index.lock, which a
+ *  gitlet process holds while it runs a command that changes the
+ *  repository, so that the commands of other processes wait for it
+ *  rather than overwrite each other's head, stage and branches.
+ *  Commands that only read the repository take no lock, except to
+ *  build a missing commit graph or index of commits, which waits for
+ *  it, or to save the stat index, which is skipped if it is taken.
+ *
+ *  The file is created exclusively and holds the id of the process
+ *  that owns it. A process that finds it taken retries with growing
+ *  pauses for up to gitlet.lockTimeout milliseconds (30 seconds by
+ *  default). Within a process the lock nests: the commands of a batch
+ *  share the lock the batch holds. The lock is used by one thread.
+ *  @author Shantao Ru
+ */
+class Lock implements AutoCloseable {
+
+    /** The lock file. */
+    static final File LOCK_FILE = Utils.join(Gitlet.GITLET_FILE,
+            "index.lock");
+
+    /** Longest time to wait for the lock, in milliseconds. */
+    private static final long TIMEOUT = Long.getLong("gitlet.lockTimeout",
+            30000);
+
+    /** Longest pause between attempts, in milliseconds. */
+    private static final long MAX_PAUSE = 50;
+
+    /** Number of locks held by this process that are not closed. */
+    private static int depth;
+
+    /** True once the hook that removes the lock file if the process is
+     *  stopped has been added. */
+    private static boolean hooked;
+
+    /** True once this lock is closed. */
+    private boolean closed;
+
+    /** A lock held by this process. */
+    private Lock() {
+    }
+
+    /** Return the lock of the repository, waiting for another process
+     *  to release it if needed. */
+    static Lock acquire() {
+        if (depth == 0) {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            long pause = 1;
+            while (!create()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new GitletException("Unable to lock the "
+                            + "repository: .gitlet/index.lock is held by "
+                            + "process " + owner() + ". If it is no longer "
+                            + "running, remove the file.");
+                }
+                try {
+                    Thread.sleep(pause
+                            + ThreadLocalRandom.current().nextLong(pause));
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new GitletException("Interrupted.");
+                }
+                pause = Math.min(2 * pause, MAX_PAUSE);
+            }
+        }
+        return hold();
+    }
+
+    /** Return the lock of the repository if this process holds it or
+     *  no process does, or null, without waiting, if another process
+     *  holds it. */
+    static Lock tryAcquire() {
+        if (depth == 0 && !create()) {
+            return null;
+        }
+        return hold();
+    }
+
+    /** Return a new lock of this process, which holds the lock file. */
+    private static Lock hold() {
+        if (!hooked) {
+            hooked = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(Lock::abandon));
+        }
+        depth += 1;
+        return new Lock();
+    }
+
+    /** Release this lock, and the lock file once no lock of this
+     *  process is left. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        depth -= 1;
+        if (depth == 0) {
+            LOCK_FILE.delete();
+        }
+    }
+
+    /** Create the lock file, unless it exists. Return true if it was
+     *  created. */
+    private static boolean create() {
+        try (FileChannel channel = FileChannel.open(LOCK_FILE.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            String pid = ProcessHandle.current().pid() + "\n";
+            channel.write(ByteBuffer.wrap(
+                    pid.getBytes(StandardCharsets.UTF_8)));
+            return true;
+        } catch (FileAlreadyExistsException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the id of the process holding the lock, as far as it
+     *  can be read. */
+    private static String owner() {
+        try {
+            String pid = Utils.readContentsAsString(LOCK_FILE).trim();
+            return pid.isEmpty() ? "unknown" : pid;
+        } catch (IllegalArgumentException excp) {
+            return "unknown";
+        }
+    }
+
+    /** Remove the lock file if the process stops while holding it. */
+    private static void abandon() {
+        if (depth > 0) {
+            depth = 0;
+            LOCK_FILE.delete();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/** Writes the entries of log and global-log, newest first, through one
+ *  buffer that is flushed when the log is closed rather than after
+ *  every line. The options
+ *      -n N          write at most N entries,
+ *      --skip N      leave out the first N entries,
+ *      --since DATE  leave out commits made before DATE (yyyy-mm-dd),
+ *  let the caller stop walking the history as soon as write returns
+ *  false. A history that is not walked newest first, such as the
+ *  commit graph, is read in any order, and its commits before DATE
+ *  are left out one by one.
+ *  @author Shantao Ru
+ */
+class LogWriter {
+
+    /** Size of the output buffer. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Pattern of commit timestamps. */
+    private static final String PATTERN = "EEE MMM d HH:mm:ss yyyy Z";
+
+    /** Formats commit timestamps may be in: that of the default locale,
+     *  which commits are made with, and English, which the initial
+     *  commit and commits made under other locales may use. */
+    private static final DateTimeFormatter[] TIMESTAMPS = {
+        DateTimeFormatter.ofPattern(PATTERN),
+        DateTimeFormatter.ofPattern(PATTERN, Locale.US),
+    };
+
+    /** Where the entries go. */
+    private final Writer out;
+
+    /** Number of entries still to leave out. */
+    private int skip;
+
+    /** Number of entries still to write. */
+    private int left = Integer.MAX_VALUE;
+
+    /** Earliest day of the commits to write, or null for no limit. */
+    private LocalDate since;
+
+    /** True if the entries are written newest first. */
+    private boolean newestFirst = true;
+
+    /** A log writer to OUT0 without limits. */
+    private LogWriter(Writer out0) {
+        out = out0;
+    }
+
+    /** Return a log writer to the standard output with the limits in
+     *  OPTIONS, or null if OPTIONS are malformed. */
+    static LogWriter open(String... options) {
+        return open(new BufferedWriter(new OutputStreamWriter(System.out,
+                Charset.defaultCharset()), BUFFER), options);
+    }
+
+    /** Return a log writer to OUT0 with the limits in OPTIONS, or null
+     *  if OPTIONS are malformed. */
+    static LogWriter open(Writer out0, String... options) {
+        LogWriter result = new LogWriter(out0);
+        try {
+            for (int i = 0; i < options.length; i += 2) {
+                if (i + 1 == options.length) {
+                    return null;
+                }
+                String value = options[i + 1];
+                switch (options[i]) {
+                case "-n":
+                    result.left = Integer.parseInt(value);
+                    break;
+                case "--skip":
+                    result.skip = Integer.parseInt(value);
+                    break;
+                case "--since":
+                    result.since = LocalDate.parse(value);
+                    break;
+                default:
+                    return null;
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException excp) {
+            return null;
+        }
+        return result.left < 0 || result.skip < 0 ? null : result;
+    }
+
+    /** Let the entries be written in any order, and return this
+     *  writer. */
+    LogWriter anyOrder() {
+        newestFirst = false;
+        return this;
+    }
+
+    /** Write the entry of the commit ID made at TIMESTAMP with MESSAGE,
+     *  unless it is left out. Return false once no more entries would
+     *  be written, which, if the history is walked newest first, is at
+     *  the first commit before the --since day. A commit whose
+     *  TIMESTAMP cannot be read is not compared with that day. */
+    boolean write(String id, String timestamp, String message) {
+        if (left == 0) {
+            return false;
+        }
+        LocalDate day = since == null ? null : day(timestamp);
+        if (day != null && day.isBefore(since)) {
+            if (newestFirst) {
+                left = 0;
+            }
+            return !newestFirst;
+        }
+        if (skip > 0) {
+            skip -= 1;
+            return true;
+        }
+        try {
+            out.write("===\ncommit ");
+            out.write(id);
+            out.write("\nDate: ");
+            out.write(timestamp);
+            out.write('\n');
+            out.write(message);
+            out.write('\n');
+            out.write(System.lineSeparator());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        left -= 1;
+        return left > 0;
+    }
+
+    /** Return the day of the commit timestamp TIMESTAMP, or null if it
+     *  is in none of the TIMESTAMPS formats. */
+    private static LocalDate day(String timestamp) {
+        OffsetDateTime time = time(timestamp);
+        return time == null ? null : time.toLocalDate();
+    }
+
+    /** Return the time of the commit timestamp TIMESTAMP, or null if it
+     *  is in none of the TIMESTAMPS formats. */
+    static OffsetDateTime time(String timestamp) {
+        for (DateTimeFormatter format : TIMESTAMPS) {
+            try {
+                return OffsetDateTime.parse(timestamp, format);
+            } catch (DateTimeParseException excp) {
+                continue;
+            }
+        }
+        return null;
+    }
+
+    /** Flush the entries written. */
+    void close() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Shantao Ru
@@ -8,85 +10,171 @@ import java.io.IOException;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... The command is sent to the daemon of
+     *  the repository if one is running, and run here otherwise;
+     *  batches, which may read the standard input, always run here. */
     public static void main(String... args) throws IOException {
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
+        if (Boolean.getBoolean("gitlet.cacheStats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                System.err.printf("object cache: %d hits, %d misses%n",
+                        ObjectCache.hits(), ObjectCache.misses())));
+        }
+        if (args.length > 0 && !args[0].equals("batch")
+                && Daemon.forward(args)) {
             System.exit(0);
         }
-        basicCommand(args);
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+        System.exit(0);
+    }
+
+    /** Commands that take no Lock: those that only read the repository,
+     * init, which makes it, and batch and daemon, which lock it
+     * themselves for as long as they need. Those that read it only
+     * lock it to build a missing commit graph or index of commits, and
+     * to save the stat index. */
+    private static final Set<String> LOCK_FREE = Set.of("init", "log",
+            "global-log", "status", "find", "batch", "daemon");
+
+    /** Run the gitlet command ARGS, holding the Lock of the repository
+     * if it changes it, and sync everything it wrote to the disk at
+     * once.
+     * @param args the command and its operands.
+     * @throws GitletException with the message to print if the
+     * command fails. */
+    static void run(String... args) throws IOException {
+        try (Lock lock = locks(args) ? Lock.acquire() : null) {
+            try {
+                dispatch(args);
+            } finally {
+                Utils.sync();
+            }
+        }
+    }
+
+    /** Return true if the command ARGS must hold the Lock of the
+     * repository, which is whenever it may change an existing one.
+     * @param args the command and its operands. */
+    static boolean locks(String... args) {
+        return args.length > 0 && !LOCK_FREE.contains(args[0])
+                && Gitlet.GITLET_FILE.isDirectory();
+    }
+
+    /** Run the gitlet command ARGS, without syncing what it writes.
+     * @param args the command and its operands. */
+    private static void dispatch(String... args) throws IOException {
+        if (args.length == 0) {
+            throw new GitletException("Please enter a command.");
+        }
+        if (basicCommand(args)) {
+            return;
+        }
         if (args[0].equals("checkout")) {
             if (args.length == 2) {
                 Gitlet.branchCheckout(args[1]);
-                System.exit(0);
+                return;
             } else if (args.length == 3) {
                 if (args[1].equals("--")) {
                     Gitlet.basicCheckout(args[2]);
-                    System.exit(0);
+                    return;
                 }
             } else if (args.length == 4) {
                 if (args[2].equals("--")) {
                     Gitlet.commitCheckout(args[1], args[3]);
-                    System.exit(0);
+                    return;
                 }
             }
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
         if (args[0].equals("status")) {
             Gitlet.status();
-            System.exit(0);
+            return;
         }
         if (args[0].equals("rm")) {
-            Gitlet.remove(args[1]);
-            System.exit(0);
+            Gitlet.remove(operands(args));
+            return;
         }
         if (args[0].equals("find")) {
-            Gitlet.find(args[1]);
-            System.exit(0);
+            if (args.length == 3) {
+                Gitlet.find(args[1], args[2]);
+            } else {
+                Gitlet.find(args[1]);
+            }
+            return;
         }
         if (args[0].equals("branch")) {
             Gitlet.branch(args[1]);
-            System.exit(0);
+            return;
         }
         if (args[0].equals("reset")) {
             Gitlet.reset(args[1], true);
-            System.exit(0);
+            return;
         }
         if (args[0].equals("rm-branch")) {
             Gitlet.removeBranch(args[1]);
-            System.exit(0);
+            return;
         }
         if (args[0].equals("merge")) {
             Gitlet.merge(args[1]);
-            System.exit(0);
+            return;
+        }
+        if (args[0].equals("batch")) {
+            Batch.command(args);
+            return;
+        }
+        if (args[0].equals("daemon")) {
+            Daemon.command(args);
+            return;
+        }
+        throw new GitletException("No command with that name exists.");
+    }
+
+    /** Return the operands of the command ARGS, of which there must be
+     * at least one.
+     * @param args the command and its operands. */
+    private static String[] operands(String[] args) {
+        if (args.length < 2) {
+            throw new GitletException("Incorrect operands.");
         }
-        System.out.println("No command with that name exists.");
+        return Arrays.copyOfRange(args, 1, args.length);
     }
 
     /** This method is use to handle basic gitlet command.
      * @param args the args that were pass from the main method.
+     * @return true if ARGS was a basic command.
      * */
-    public static void basicCommand(String[] args) throws IOException {
+    public static boolean basicCommand(String[] args) throws IOException {
         if (args[0].equals("init")) {
             Gitlet.init();
-            System.exit(0);
+            return true;
         }
         if (args[0].equals("add")) {
-            Gitlet.add(args[1]);
-            System.exit(0);
+            Gitlet.add(operands(args));
+            return true;
         }
         if (args[0].equals("commit")) {
             Gitlet.commit(args[1], null);
-            System.exit(0);
+            return true;
         }
         if (args[0].equals("log")) {
-            Gitlet.log();
-            System.exit(0);
+            Gitlet.log(Arrays.copyOfRange(args, 1, args.length));
+            return true;
         }
         if (args[0].equals("global-log")) {
-            Gitlet.globallog();
-            System.exit(0);
+            Gitlet.globallog(Arrays.copyOfRange(args, 1, args.length));
+            return true;
+        }
+        if (args[0].equals("gc")) {
+            Gitlet.gc();
+            return true;
+        }
+        if (args[0].equals("migrate")) {
+            Gitlet.migrate();
+            return true;
         }
+        return false;
     }
 }
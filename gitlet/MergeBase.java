@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Lowest common ancestors of commits in a CommitGraph.
+ *  Both commits are painted at once, walking down from the highest
+ *  generation. A commit painted from both sides is a common ancestor,
+ *  and everything below it is marked stale, so the walk stops as soon
+ *  as only stale commits are left. In criss-cross histories there can
+ *  be several best common ancestors; all of them are returned, after
+ *  dropping any that are ancestors of another.
+ *  @author Shantao Ru
+ */
+class MergeBase {
+
+    /** Reached from the first commit. */
+    private static final int FROM_A = 1;
+
+    /** Reached from the second commit. */
+    private static final int FROM_B = 2;
+
+    /** Below a common ancestor that has already been found. */
+    private static final int STALE = 4;
+
+    /** Recorded as a common ancestor. */
+    private static final int RESULT = 8;
+
+    /** Merge bases of the repository's commit graph. */
+    private static MergeBase repo;
+
+    /** The graph being searched. */
+    private final CommitGraph graph;
+
+    /** Merge bases already computed, keyed by both positions. History
+     *  never changes under a commit, so entries never go stale. */
+    private final HashMap<Long, List<Integer>> cache = new HashMap<>();
+
+    /** Most commits visited by one search, for the benchmark. */
+    private int visited;
+
+    /** Merge bases in COMMITS. */
+    MergeBase(CommitGraph commits) {
+        graph = commits;
+    }
+
+    /** Return the merge bases of the repository's commit graph. */
+    static MergeBase get() {
+        if (repo == null) {
+            repo = new MergeBase(CommitGraph.get());
+        }
+        return repo;
+    }
+
+    /** Forget the merge bases of the repository. */
+    static void reset() {
+        repo = null;
+    }
+
+    /** Return the position of the best common ancestor of the commits
+     *  at A and B, or -1 if there is none. When there are several, the
+     *  one with the highest generation is returned, ties going to the
+     *  smaller id. */
+    int best(int a, int b) {
+        List<Integer> bases = all(a, b);
+        return bases.isEmpty() ? -1 : bases.get(0);
+    }
+
+    /** Return the positions of all best common ancestors of the commits
+     *  at A and B, highest generation first. */
+    List<Integer> all(int a, int b) {
+        long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        List<Integer> result = cache.get(key);
+        if (result == null) {
+            result = removeRedundant(paint(a, b));
+            result.sort(Comparator.comparingInt(graph::generation)
+                    .reversed().thenComparing(graph::id));
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /** Return the number of commits visited by the last search. */
+    int visited() {
+        return visited;
+    }
+
+    /** Return the common ancestors of A and B that are not below
+     *  another common ancestor found by the walk. Commits leave the
+     *  queue in order of generation and parents have lower generations
+     *  than their children, so a commit is only queued once, when it is
+     *  first flagged, and later flags reach it while it waits. FRESH
+     *  counts the queued commits that are not STALE. */
+    private List<Integer> paint(int a, int b) {
+        ArrayList<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                Comparator.comparingInt(graph::generation).reversed());
+        flags.put(a, FROM_A);
+        flags.put(b, FROM_B);
+        queue.add(a);
+        queue.add(b);
+        int fresh = 2;
+        while (fresh > 0) {
+            int k = queue.poll();
+            int f = flags.get(k) & (FROM_A | FROM_B | STALE);
+            if ((f & STALE) == 0) {
+                fresh -= 1;
+            }
+            if ((f & (FROM_A | FROM_B)) == (FROM_A | FROM_B)) {
+                if ((flags.get(k) & RESULT) == 0) {
+                    flags.put(k, flags.get(k) | RESULT);
+                    result.add(k);
+                }
+                f |= STALE;
+            }
+            for (int p : new int[] {graph.parent(k), graph.parent2(k)}) {
+                int old = flags.getOrDefault(p, 0);
+                if (p < 0 || (old & f) == f) {
+                    continue;
+                }
+                flags.put(p, old | f);
+                if (old == 0) {
+                    queue.add(p);
+                    fresh += (f & STALE) == 0 ? 1 : 0;
+                } else if ((old & STALE) == 0 && (f & STALE) != 0) {
+                    fresh -= 1;
+                }
+            }
+        }
+        visited = flags.size();
+        result.removeIf(k -> (flags.get(k) & STALE) != 0);
+        return result;
+    }
+
+    /** Return CANDIDATES without those that are ancestors of another
+     *  candidate. */
+    private List<Integer> removeRedundant(List<Integer> candidates) {
+        if (candidates.size() < 2) {
+            return candidates;
+        }
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int c : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != c && isAncestor(c, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /** Return true if the commit at ANCESTOR can be reached from the
+     *  commit at K, skipping commits with lower generations. */
+    private boolean isAncestor(int ancestor, int k) {
+        int floor = graph.generation(ancestor);
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(k);
+        while (!stack.isEmpty()) {
+            int top = stack.pop();
+            if (top == ancestor) {
+                return true;
+            }
+            if (!seen.add(top) || graph.generation(top) <= floor) {
+                continue;
+            }
+            for (int p : new int[] {graph.parent(top), graph.parent2(top)}) {
+                if (p >= 0) {
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** Inverted index from commit messages to commit ids, used by find.
+ *  .gitlet/find holds up to 256 bucket files, named by two hexadecimal
+ *  digits of the hash of a key. A key is either a whole message or one
+ *  of its words, lowercased. Each bucket is a list of records appended
+ *  as commits are made: a type byte, the length and UTF-8 bytes of the
+ *  key and the 20-byte commit id. A lookup only reads the bucket of its
+ *  key. The file ends holds the end of the whole records of each
+ *  bucket, so a commit appends its records without reading any bucket;
+ *  if a crash leaves it cut short, the ends are found again by reading
+ *  the buckets.
+ *  A record left partly written at the end of a bucket by a crash lies
+ *  past its end, is ignored, and the next record is written over it.
+ *  @author Shantao Ru
+ */
+class MessageIndex {
+
+    /** Index directory of the repository. */
+    static final File FIND_FOLDER = Utils.join(Gitlet.GITLET_FILE, "find");
+
+    /** Type of the record of a whole message. */
+    private static final int MESSAGE = 0;
+
+    /** Type of the record of one word of a message. */
+    private static final int WORD = 1;
+
+    /** Number of buckets. */
+    private static final int BUCKETS = 256;
+
+    /** Name of the file of the ends of the buckets. */
+    private static final String ENDS = "ends";
+
+    /** Characters that separate the words of a message. */
+    private static final Pattern SEPARATORS =
+            Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /** Index of the repository, once it has been loaded. */
+    private static MessageIndex repo;
+
+    /** The index directory. */
+    private final File dir;
+
+    /** Number of bytes this index has read from its files. */
+    private long bytesRead;
+
+    /** An index stored in DIR0. */
+    MessageIndex(File dir0) {
+        dir = dir0;
+    }
+
+    /** Return the index of the repository, building it from the
+     *  commit graph if the repository does not have one yet. */
+    static MessageIndex get() {
+        if (repo == null) {
+            if (!FIND_FOLDER.exists()) {
+                try (Lock lock = Lock.acquire()) {
+                    if (!FIND_FOLDER.exists()) {
+                        create();
+                    }
+                }
+            }
+            repo = new MessageIndex(FIND_FOLDER);
+        }
+        return repo;
+    }
+
+    /** Build the index of the repository in a temporary directory and
+     *  rename it to FIND_FOLDER, so a command reading the index without
+     *  the Lock never sees part of it. */
+    private static void create() {
+        File temp = null;
+        try {
+            temp = Files.createTempDirectory(Gitlet.GITLET_FILE.toPath(),
+                    ".find.").toFile();
+            new MessageIndex(temp).build(CommitGraph.get());
+            Utils.rename(temp, FIND_FOLDER);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null && temp.exists()) {
+                for (File file : temp.listFiles()) {
+                    file.delete();
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    /** Forget the index of the repository, so that it is read again. */
+    static void reset() {
+        repo = null;
+    }
+
+    /** Index the messages of all commits in GRAPH. */
+    void build(CommitGraph graph) {
+        dir.mkdir();
+        LinkedHashMap<String, String> messages = new LinkedHashMap<>();
+        for (int k = 0; k < graph.size(); k += 1) {
+            messages.put(graph.id(k), graph.message(k));
+        }
+        write(messages);
+    }
+
+    /** Add the commit ID with MESSAGE, which is not in the index yet. */
+    void add(String id, String message) {
+        write(Map.of(id, message));
+    }
+
+    /** Return the ids of the commits whose message is MESSAGE, in
+     *  sorted order. */
+    List<String> lookup(String message) {
+        return new ArrayList<>(lookup(MESSAGE, message));
+    }
+
+    /** Return the ids of the commits whose message contains WORD, in
+     *  any case, in sorted order. */
+    List<String> lookupWord(String word) {
+        return new ArrayList<>(lookup(WORD, word.toLowerCase()));
+    }
+
+    /** Return the distinct words of MESSAGE, lowercased. */
+    static Set<String> words(String message) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (String word : SEPARATORS.split(message.toLowerCase())) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of bytes this index has read from its
+     *  files. */
+    long bytesRead() {
+        return bytesRead;
+    }
+
+    /** Append the records of MESSAGES, which maps commit ids to their
+     *  messages, to their buckets, opening each bucket once, and then
+     *  record the new ends of the buckets. */
+    private void write(Map<String, String> messages) {
+        TreeMap<Integer, ByteArrayOutputStream> buckets = new TreeMap<>();
+        int[] ends = ends();
+        try {
+            for (Map.Entry<String, String> e : messages.entrySet()) {
+                byte[] id = Utils.idBytes(e.getKey());
+                record(buckets, MESSAGE, e.getValue(), id);
+                for (String word : words(e.getValue())) {
+                    record(buckets, WORD, word, id);
+                }
+            }
+            for (Map.Entry<Integer, ByteArrayOutputStream> e
+                    : buckets.entrySet()) {
+                int b = e.getKey();
+                File file = file(b);
+                if (file.length() < ends[b]) {
+                    ends[b] = end(read(file));
+                }
+                byte[] bytes = e.getValue().toByteArray();
+                Utils.appendContents(file, ends[b], bytes);
+                ends[b] += bytes.length;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(BUCKETS * Integer.BYTES);
+            buf.asIntBuffer().put(ends);
+            Utils.appendContents(Utils.join(dir, ENDS), 0, buf.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the end of the whole records of each bucket, which are
+     *  found by reading the buckets if they were never recorded. */
+    private int[] ends() {
+        int[] ends = new int[BUCKETS];
+        byte[] contents = read(Utils.join(dir, ENDS));
+        if (contents.length == ends.length * Integer.BYTES) {
+            ByteBuffer.wrap(contents).asIntBuffer().get(ends);
+        } else {
+            for (int b = 0; b < BUCKETS; b += 1) {
+                ends[b] = end(read(file(b)));
+            }
+        }
+        return ends;
+    }
+
+    /** Add the record of KEY of type TYPE for the binary commit ID to
+     *  the contents of its bucket in BUCKETS. */
+    private static void record(Map<Integer, ByteArrayOutputStream> buckets,
+                               int type, String key, byte[] id)
+            throws IOException {
+        ByteArrayOutputStream bytes = buckets.computeIfAbsent(
+                bucket(type, key), b -> new ByteArrayOutputStream());
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(type);
+        out.writeInt(data.length);
+        out.write(data);
+        out.write(id);
+    }
+
+    /** Return the ids of the commits with records of KEY of type TYPE,
+     *  in sorted order. */
+    private TreeSet<String> lookup(int type, String key) {
+        TreeSet<String> result = new TreeSet<>();
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        int b = bucket(type, key);
+        byte[] contents = read(file(b));
+        ByteBuffer buf = ByteBuffer.wrap(contents);
+        int end = Math.min(ends()[b], end(contents));
+        while (buf.position() < end) {
+            int recordType = buf.get();
+            int length = buf.getInt();
+            int start = buf.position();
+            if (recordType == type && length == data.length
+                    && Arrays.equals(contents, start, start + length,
+                            data, 0, length)) {
+                result.add(Utils.idAt(buf, start + length));
+            }
+            buf.position(start + length + Utils.ID_BYTES);
+        }
+        return result;
+    }
+
+    /** Return the contents of FILE, which are empty if it does not
+     *  exist. */
+    private byte[] read(File file) {
+        if (!file.exists()) {
+            return new byte[0];
+        }
+        try {
+            byte[] contents = Files.readAllBytes(file.toPath());
+            bytesRead += contents.length;
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the file of bucket B. */
+    private File file(int b) {
+        return Utils.join(dir, Utils.toHex(new byte[] {(byte) b}));
+    }
+
+    /** Return the length of the whole records at the start of the
+     *  bucket CONTENTS, leaving out a record cut short by a crash. */
+    private static int end(byte[] contents) {
+        ByteBuffer buf = ByteBuffer.wrap(contents);
+        int end = 0;
+        while (contents.length - end > 4) {
+            int length = buf.getInt(end + 1);
+            if (length < 0 || length > contents.length - end - 5
+                    - Utils.ID_BYTES) {
+                break;
+            }
+            end += 5 + length + Utils.ID_BYTES;
+        }
+        return end;
+    }
+
+    /** Return the bucket of KEY of type TYPE. */
+    private static int bucket(int type, String key) {
+        return (31 * key.hashCode() + type) & (BUCKETS - 1);
+    }
+}
@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Cache of the objects read and written through Utils.readObject
+ *  and Utils.writeObject during one gitlet command, so that the head
+ *  commit, the stage and the branches are each deserialized at most
+ *  once. Objects are keyed by their file, whose name is the object id
+ *  for commits, and the least recently used ones are evicted once the
+ *  total serialized size passes MAX_BYTES.
+ *  @author Shantao Ru
+ */
+class ObjectCache {
+
+    /** Largest total serialized size of the cached objects. */
+    static final long MAX_BYTES = 32 << 20;
+
+    /** Cached objects and their serialized sizes, least recently used
+     *  first. */
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total serialized size of the cached objects. */
+    private static long bytes;
+
+    /** Number of reads answered from the cache. */
+    private static long hits;
+
+    /** Number of reads that had to deserialize a file. */
+    private static long misses;
+
+    /** Return the object cached for FILE, or null if there is none. */
+    static Serializable get(File file) {
+        Entry e = ENTRIES.get(file.getPath());
+        if (e == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return e.obj;
+    }
+
+    /** Cache OBJ, whose serialized form of SIZE bytes is in FILE. */
+    static void put(File file, Serializable obj, long size) {
+        Entry old = ENTRIES.put(file.getPath(), new Entry(obj, size));
+        if (old != null) {
+            bytes -= old.size;
+        }
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+        while (bytes > MAX_BYTES && it.hasNext()) {
+            bytes -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    /** Forget the object cached for FILE. */
+    static void remove(File file) {
+        Entry old = ENTRIES.remove(file.getPath());
+        if (old != null) {
+            bytes -= old.size;
+        }
+    }
+
+    /** Forget every cached object. */
+    static void clear() {
+        ENTRIES.clear();
+        bytes = 0;
+    }
+
+    /** Forget every cached object that is not an instance of one of
+     *  TYPES. */
+    static void retain(Class<?>... types) {
+        Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next().getValue();
+            boolean keep = false;
+            for (Class<?> type : types) {
+                keep |= type.isInstance(e.obj);
+            }
+            if (!keep) {
+                bytes -= e.size;
+                it.remove();
+            }
+        }
+    }
+
+    /** Return the number of reads answered from the cache. */
+    static long hits() {
+        return hits;
+    }
+
+    /** Return the number of reads that missed the cache. */
+    static long misses() {
+        return misses;
+    }
+
+    /** A cached object and its serialized size. */
+    private static class Entry {
+
+        /** The object. */
+        private final Serializable obj;
+
+        /** Its serialized size. */
+        private final long size;
+
+        /** An entry for OBJ0 of SIZE0 bytes. */
+        Entry(Serializable obj0, long size0) {
+            obj = obj0;
+            size = size0;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** The pack file of gitlet, written by the gc command.
+ *  Commits, trees and blobs are copied out of their loose files into one
+ *  pack file, .gitlet/pack/objects.pack, with a sorted index in
+ *  .gitlet/pack/objects.idx. Each version of a file is stored as a
+ *  delta against a similar version of the same path when that is
+ *  much smaller. Both files are memory-mapped for lookup.
+ *
+ *  The pack holds a header ("GPCK", version, count) followed by
+ *  entries of the form: type byte, 20-byte base id (deltas only),
+ *  uncompressed length, compressed length, deflated payload.
+ *  The index holds a header ("GIDX", version, count), the sorted
+ *  20-byte ids and then the pack offset of each of them.
+ *  @author Shantao Ru
+ */
+class Pack {
+
+    /** Directory of the pack files. */
+    static final File PACK_FOLDER = Utils.join(Gitlet.GITLET_FILE, "pack");
+
+    /** The pack file. */
+    static final File PACK_FILE = Utils.join(PACK_FOLDER, "objects.pack");
+
+    /** The index of the pack file. */
+    static final File INDEX_FILE = Utils.join(PACK_FOLDER, "objects.idx");
+
+    /** Entry type of a serialized commit. */
+    static final int COMMIT = 1;
+
+    /** Entry type of the full contents of a blob. */
+    static final int BLOB = 2;
+
+    /** Entry type of a blob stored as a delta against another blob. */
+    static final int DELTA = 3;
+
+    /** Entry type of a serialized tree. */
+    static final int TREE = 4;
+
+    /** Blobs larger than this are left loose. */
+    static final int LOOSE_LIMIT = 16 << 20;
+
+    /** Magic number of the pack file. */
+    private static final int PACK_MAGIC = 0x4750434b;
+
+    /** Magic number of the index file. */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+
+    /** Size of the pack and index headers. */
+    private static final int HEADER = 12;
+
+    /** Number of earlier versions tried as a delta base. */
+    private static final int WINDOW = 10;
+
+    /** Longest chain of deltas allowed. */
+    private static final int MAX_DEPTH = 16;
+
+    /** Mapped pack file, or null if it has not been loaded. */
+    private static ByteBuffer pack;
+
+    /** Mapped index file, or null if it has not been loaded. */
+    private static ByteBuffer index;
+
+    /** Number of objects in the pack, or -1 if it has not been loaded. */
+    private static int count = -1;
+
+    /** Forget the mapped pack, so that it is read again. */
+    static void reset() {
+        pack = null;
+        index = null;
+        count = -1;
+    }
+
+    /** Return true if the object ID is in the pack. */
+    static boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Return the uncompressed contents of the packed object ID. */
+    static byte[] read(String id) {
+        int k = find(id);
+        if (k < 0) {
+            throw Utils.error("Object %s is not in the pack.", id);
+        }
+        int offset = offset(k);
+        int type = pack.get(offset);
+        int pos = offset + 1;
+        String base = null;
+        if (type == DELTA) {
+            base = Utils.idAt(pack, pos);
+            pos += Utils.ID_BYTES;
+        }
+        byte[] data = inflate(slice(pos + 8, pack.getInt(pos + 4)),
+                pack.getInt(pos));
+        if (type == DELTA) {
+            return Delta.apply(read(base), data);
+        }
+        return data;
+    }
+
+    /** Return a stream of the contents of the packed blob ID. Full
+     *  blobs are inflated straight from the mapped pack. */
+    static InputStream open(String id) {
+        int k = find(id);
+        if (k >= 0 && pack.get(offset(k)) == BLOB) {
+            int pos = offset(k) + 1;
+            return Blob.inflating(slice(pos + 8, pack.getInt(pos + 4)));
+        }
+        return new ByteArrayInputStream(read(id));
+    }
+
+    /** Return the ids of all packed objects of type KIND, where
+     *  BLOB also includes deltas, in sorted order. */
+    static List<String> ids(int kind) {
+        load();
+        ArrayList<String> result = new ArrayList<>();
+        for (int k = 0; k < count; k += 1) {
+            int type = pack.get(offset(k));
+            if (type == kind || (kind == BLOB && type == DELTA)) {
+                result.add(Utils.idAt(index, HEADER + k * Utils.ID_BYTES));
+            }
+        }
+        return result;
+    }
+
+    /** Pack every commit, tree and blob up to LOOSE_LIMIT, loose or
+     *  already packed, into a new pack and remove the loose copies.
+     *  Blobs left out of the new pack that only the old pack holds are
+     *  written as loose files before the old pack is replaced. */
+    static void repack() throws IOException {
+        List<String> commits = historyOrder();
+        LinkedHashMap<String, List<String>> paths = new LinkedHashMap<>();
+        HashSet<String> grouped = new HashSet<>();
+        for (String id : commits) {
+            Commit c = Commit.read(Commit.file(id));
+            for (String name : c.getFiles().keySet()) {
+                String blob = c.getFiles().get(name).getName();
+                if (grouped.add(blob)) {
+                    paths.computeIfAbsent(name, k -> new ArrayList<>())
+                            .add(blob);
+                }
+            }
+        }
+        ArrayList<String> rest = new ArrayList<>();
+        for (String blob : blobIDs()) {
+            if (grouped.add(blob)) {
+                rest.add(blob);
+            }
+        }
+        paths.put("", rest);
+
+        PACK_FOLDER.mkdir();
+        File tempPack = File.createTempFile("pack", null, PACK_FOLDER);
+        TreeMap<String, Integer> offsets = new TreeMap<>();
+        ArrayList<String> skipped = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempPack)))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            for (String id : commits) {
+                offsets.put(id, out.size());
+                File loose = Commit.file(id);
+                writeEntry(out, COMMIT, null, loose.exists()
+                        ? Utils.readContents(loose) : read(id));
+            }
+            for (String id : Tree.allIDs()) {
+                offsets.put(id, out.size());
+                File loose = Tree.file(id);
+                writeEntry(out, TREE, null, loose.exists()
+                        ? Utils.readContents(loose) : read(id));
+            }
+            for (List<String> versions : paths.values()) {
+                writeVersions(out, versions, offsets, skipped);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tempPack.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, offsets.size()),
+                    8);
+        }
+        File tempIndex = File.createTempFile("idx", null, PACK_FOLDER);
+        writeIndex(tempIndex, offsets);
+        for (String id : skipped) {
+            if (!Blob.file(id).exists()) {
+                Blob.unpack(id);
+            }
+        }
+        Utils.syncLater(tempPack);
+        Utils.syncLater(tempIndex);
+        Utils.sync();
+
+        reset();
+        Files.move(tempPack.toPath(), PACK_FILE.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempIndex.toPath(), INDEX_FILE.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Utils.syncLater(PACK_FILE);
+        Utils.syncLater(INDEX_FILE);
+        Utils.sync();
+        for (String id : offsets.keySet()) {
+            Commit.file(id).delete();
+            Tree.file(id).delete();
+            Blob.file(id).delete();
+        }
+    }
+
+    /** Write the blobs in VERSIONS, versions of one path from newest
+     *  to oldest, to OUT, recording their offsets in OFFSETS. Each one
+     *  becomes a delta against one of the WINDOW versions before it
+     *  when that delta is less than half its size. Blobs larger than
+     *  LOOSE_LIMIT, or that would not fit in the pack, are added to
+     *  SKIPPED instead. */
+    private static void writeVersions(DataOutputStream out,
+                                      List<String> versions,
+                                      TreeMap<String, Integer> offsets,
+                                      List<String> skipped)
+            throws IOException {
+        ArrayDeque<String> window = new ArrayDeque<>();
+        HashMap<String, byte[]> contents = new HashMap<>();
+        HashMap<String, Integer> depth = new HashMap<>();
+        for (String id : versions) {
+            File loose = Blob.file(id);
+            if (out.size() > Integer.MAX_VALUE - 2 * LOOSE_LIMIT
+                    || Blob.size(loose, LOOSE_LIMIT) > LOOSE_LIMIT) {
+                skipped.add(id);
+                continue;
+            }
+            byte[] data = Blob.readBytes(loose);
+            String base = null;
+            byte[] best = null;
+            for (String candidate : window) {
+                if (depth.get(candidate) >= MAX_DEPTH) {
+                    continue;
+                }
+                byte[] delta = Delta.create(contents.get(candidate), data);
+                if (best == null || delta.length < best.length) {
+                    best = delta;
+                    base = candidate;
+                }
+            }
+            offsets.put(id, out.size());
+            if (best != null && best.length < data.length / 2) {
+                writeEntry(out, DELTA, base, best);
+                depth.put(id, depth.get(base) + 1);
+            } else {
+                writeEntry(out, BLOB, null, data);
+                depth.put(id, 0);
+            }
+            window.addFirst(id);
+            contents.put(id, data);
+            if (window.size() > WINDOW) {
+                contents.remove(window.removeLast());
+            }
+        }
+    }
+
+    /** Write an entry of TYPE holding DATA, a delta against BASE if
+     *  TYPE is DELTA, to OUT. */
+    private static void writeEntry(DataOutputStream out, int type,
+                                   String base, byte[] data)
+            throws IOException {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[Blob.CHUNK];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        out.writeByte(type);
+        if (type == DELTA) {
+            out.write(Utils.idBytes(base));
+        }
+        out.writeInt(data.length);
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+    }
+
+    /** Write the index of OFFSETS to FILE. */
+    private static void writeIndex(File file, TreeMap<String, Integer> offsets)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(offsets.size());
+            for (String id : offsets.keySet()) {
+                out.write(Utils.idBytes(id));
+            }
+            for (int offset : offsets.values()) {
+                out.writeInt(offset);
+            }
+        }
+    }
+
+    /** Return all commit ids, those reachable from a branch first,
+     *  newest to oldest, so versions of a path end up next to each
+     *  other. */
+    private static List<String> historyOrder() {
+        LinkedHashMap<String, Boolean> seen = new LinkedHashMap<>();
+        ArrayDeque<File> queue = new ArrayDeque<>();
+        for (String name : Utils.plainFilenamesIn(Branch.BRANCH_FILE)) {
+            queue.add(Utils.readObject(Utils.join(Branch.BRANCH_FILE, name),
+                    Branch.class).getBranchpointer());
+        }
+        while (!queue.isEmpty()) {
+            File f = queue.poll();
+            if (seen.put(f.getName(), true) != null) {
+                continue;
+            }
+            Commit c = Commit.read(f);
+            if (c.getParent() != null) {
+                queue.add(c.getParent());
+            }
+            if (c.getParent2() != null) {
+                queue.add(c.getParent2());
+            }
+        }
+        for (String id : Commit.allIDs()) {
+            seen.putIfAbsent(id, true);
+        }
+        return new ArrayList<>(seen.keySet());
+    }
+
+    /** Return the ids of all loose and packed blobs. */
+    private static List<String> blobIDs() {
+        ArrayList<String> result = new ArrayList<>(ids(BLOB));
+        for (String name : Shards.ids(Blob.BLOBSFOLDER)) {
+            if (name.length() == Utils.UID_LENGTH) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Map the pack and its index if that has not been done yet. */
+    private static synchronized void load() {
+        if (count >= 0) {
+            return;
+        }
+        if (!INDEX_FILE.exists() || !PACK_FILE.exists()) {
+            count = 0;
+            return;
+        }
+        index = Utils.map(INDEX_FILE, true);
+        pack = Utils.map(PACK_FILE, true);
+        if (index.getInt(0) != INDEX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw Utils.error("Corrupt pack file.");
+        }
+        count = index.getInt(8);
+    }
+
+    /** Return the position of ID in the index, or -1 if it is not
+     *  there. */
+    private static int find(String id) {
+        load();
+        if (count == 0 || !Utils.isID(id)) {
+            return -1;
+        }
+        byte[] key = Utils.idBytes(id);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the K-th id in the index with KEY. */
+    private static int compare(int k, byte[] key) {
+        int start = HEADER + k * Utils.ID_BYTES;
+        for (int i = 0; i < Utils.ID_BYTES; i += 1) {
+            int cmp = Integer.compare(index.get(start + i) & 0xff,
+                    key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the pack offset of the K-th object in the index. */
+    private static int offset(int k) {
+        return index.getInt(HEADER + count * Utils.ID_BYTES + k * 4);
+    }
+
+    /** Return the LENGTH bytes of the pack starting at START. */
+    private static ByteBuffer slice(int start, int length) {
+        ByteBuffer result = pack.duplicate();
+        result.position(start).limit(start + length);
+        return result.slice();
+    }
+
+    /** Return the RAWLENGTH bytes inflated from INPUT, which must hold
+     *  all of them. */
+    private static byte[] inflate(ByteBuffer input, int rawLength) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(input);
+        byte[] result = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                int k = inflater.inflate(result, n, rawLength - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw Utils.error("Corrupt pack file.");
+                }
+                n += k;
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt pack file.");
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/** Sorted index of all commit ids, used to resolve abbreviated ids.
+ *  .gitlet/commit-ids holds a header ("CIDX", version, number of sorted
+ *  ids), a fan-out table whose entry b is the number of sorted ids
+ *  whose first byte is at most b, the sorted 20-byte ids, and then a
+ *  tail of ids appended since the last sort. A prefix is looked up by
+ *  binary search within its fan-out bucket, plus a scan of the tail,
+ *  which is merged into the sorted part once it holds TAIL_LIMIT ids.
+ *  An id left partly written at the end by a crash is ignored, and the
+ *  next id is written over it.
+ *  @author Shantao Ru
+ */
+class PrefixIndex {
+
+    /** Index file of the repository. */
+    static final File INDEX_FILE = Utils.join(Gitlet.GITLET_FILE,
+            "commit-ids");
+
+    /** Shortest abbreviation of a commit id that is resolved. */
+    static final int MIN_PREFIX = 4;
+
+    /** Largest number of unsorted ids kept at the end of the file. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** Magic number of the index file. */
+    private static final int MAGIC = 0x43494458;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Size of the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Size of the header and fan-out table. */
+    private static final int HEADER = 12 + 4 * FANOUT;
+
+    /** Index of the repository, once it has been loaded. */
+    private static PrefixIndex repo;
+
+    /** The index file. */
+    private final File file;
+
+    /** Mapped index file, or null if it needs to be mapped. */
+    private ByteBuffer buf;
+
+    /** Number of sorted ids. */
+    private int sorted;
+
+    /** Number of ids in the tail. */
+    private int tail;
+
+    /** An index stored in FILE0. */
+    PrefixIndex(File file0) {
+        file = file0;
+    }
+
+    /** Return the index of the repository, building it from the
+     *  commits if the repository does not have one yet. */
+    static PrefixIndex get() {
+        if (repo == null) {
+            repo = new PrefixIndex(INDEX_FILE);
+            if (!INDEX_FILE.exists()) {
+                try (Lock lock = Lock.acquire()) {
+                    if (!INDEX_FILE.exists()) {
+                        repo.rewrite(Commit.allIDs());
+                    }
+                }
+            }
+        }
+        return repo;
+    }
+
+    /** Forget the index of the repository, so that it is read again. */
+    static void reset() {
+        repo = null;
+    }
+
+    /** Add the commit ID, unless it is already in the index. */
+    void add(String id) {
+        if (!resolve(id, 1).isEmpty()) {
+            return;
+        }
+        if (tail >= TAIL_LIMIT) {
+            ArrayList<byte[]> ids = new ArrayList<>();
+            for (int k = 0; k < sorted + tail; k += 1) {
+                byte[] bytes = new byte[Utils.ID_BYTES];
+                buf.get(HEADER + k * Utils.ID_BYTES, bytes);
+                ids.add(bytes);
+            }
+            ids.add(Utils.idBytes(id));
+            write(ids);
+            return;
+        }
+        Utils.appendContents(file,
+                HEADER + (long) (sorted + tail) * Utils.ID_BYTES,
+                Utils.idBytes(id));
+        buf = null;
+    }
+
+    /** Replace the contents of the index with IDS, all sorted. */
+    void rewrite(Collection<String> ids) {
+        ArrayList<byte[]> all = new ArrayList<>();
+        for (String id : ids) {
+            all.add(Utils.idBytes(id));
+        }
+        write(all);
+    }
+
+    /** Replace the contents of the index with the binary IDS, which
+     *  are sorted in place and may contain duplicates. */
+    private void write(List<byte[]> ids) {
+        ids.sort(Arrays::compareUnsigned);
+        ArrayList<byte[]> all = new ArrayList<>();
+        int[] fanout = new int[FANOUT];
+        for (byte[] id : ids) {
+            if (all.isEmpty()
+                    || !Arrays.equals(all.get(all.size() - 1), id)) {
+                all.add(id);
+                fanout[id[0] & 0xff] += 1;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER
+                + all.size() * Utils.ID_BYTES);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(all.size());
+        int total = 0;
+        for (int count : fanout) {
+            total += count;
+            out.putInt(total);
+        }
+        for (byte[] id : all) {
+            out.put(id);
+        }
+        Utils.writeContents(file, out.array());
+        buf = null;
+    }
+
+    /** Return the ids in the index that start with the hexadecimal
+     *  PREFIX, at most LIMIT of them. Callers pass a LIMIT of 2 to tell
+     *  a unique prefix from an ambiguous one. */
+    List<String> resolve(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<>();
+        byte[] key = key(prefix);
+        if (key == null) {
+            return result;
+        }
+        ByteBuffer index = buf();
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(12 + 4 * (first - 1));
+        int hi = index.getInt(12 + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < sorted && result.size() < limit
+                && matches(k, key, prefix.length()); k += 1) {
+            result.add(id(k));
+        }
+        for (int k = sorted; k < sorted + tail && result.size() < limit;
+             k += 1) {
+            if (matches(k, key, prefix.length())) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Return the smallest 20-byte id that starts with PREFIX, or null
+     *  if PREFIX is not a hexadecimal string of at most 40 digits. */
+    private static byte[] key(String prefix) {
+        if (prefix.isEmpty() || prefix.length() > 2 * Utils.ID_BYTES) {
+            return null;
+        }
+        byte[] result = new byte[Utils.ID_BYTES];
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int digit = Utils.hexDigit(prefix.charAt(i));
+            if (digit < 0) {
+                return null;
+            }
+            result[i / 2] |= i % 2 == 0 ? digit << 4 : digit;
+        }
+        return result;
+    }
+
+    /** Compare the K-th id with KEY. */
+    private int compare(int k, byte[] key) {
+        int start = HEADER + k * Utils.ID_BYTES;
+        for (int i = 0; i < Utils.ID_BYTES; i += 1) {
+            int cmp = Integer.compare(buf.get(start + i) & 0xff,
+                    key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return true if the K-th id starts with the first DIGITS
+     *  hexadecimal digits of KEY. */
+    private boolean matches(int k, byte[] key, int digits) {
+        int start = HEADER + k * Utils.ID_BYTES;
+        for (int i = 0; i < digits / 2; i += 1) {
+            if (buf.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return digits % 2 == 0
+            || (buf.get(start + digits / 2) & 0xf0)
+                == (key[digits / 2] & 0xff);
+    }
+
+    /** Return the K-th id, counting the sorted ids first. */
+    private String id(int k) {
+        return Utils.idAt(buf(), HEADER + k * Utils.ID_BYTES);
+    }
+
+    /** Return the mapped index file, mapping it if needed. */
+    private ByteBuffer buf() {
+        if (buf == null) {
+            buf = Utils.map(file, true);
+            if (buf.getInt(0) != MAGIC) {
+                throw Utils.error("Corrupt commit id index.");
+            }
+            sorted = buf.getInt(8);
+            tail = (buf.limit() - HEADER) / Utils.ID_BYTES - sorted;
+        }
+        return buf;
+    }
+}
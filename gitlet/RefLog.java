@@ -0,0 +1,50 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/** The reflogs of gitlet: for each branch, the file .gitlet/logs/NAME
+ *  records every move of the branch, oldest first, so branches
+ *  themselves only hold the commit they point at. Each record is
+ *  RECORD bytes: the binary id of the commit the branch pointed at
+ *  (zeros when it was made), the binary id of the commit it points at
+ *  since, and the time of the move in milliseconds. Moving a branch
+ *  appends one record, however long its log is, and the K-th record
+ *  starts at byte K * RECORD. A record left partly written by a crash
+ *  is dropped by the next move.
+ *  @author Shantao Ru
+ */
+class RefLog {
+
+    /** Directory of the reflogs. */
+    static final File LOG_FOLDER = Utils.join(Gitlet.GITLET_FILE, "logs");
+
+    /** Size of a record. */
+    static final int RECORD = 2 * Utils.ID_BYTES + Long.BYTES;
+
+    /** Binary id written for a branch that did not exist. */
+    private static final byte[] NONE = new byte[Utils.ID_BYTES];
+
+    /** Record that the branch NAME moved from the commit OLDID, which is
+     *  null if the branch was just made, to NEWID. */
+    static void append(String name, String oldID, String newID) {
+        LOG_FOLDER.mkdir();
+        File file = Utils.join(LOG_FOLDER, name);
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.put(oldID == null ? NONE : Utils.idBytes(oldID));
+        record.put(Utils.idBytes(newID));
+        record.putLong(System.currentTimeMillis());
+        Utils.appendContents(file, (long) size(name) * RECORD,
+                record.array());
+    }
+
+    /** Return the number of moves recorded for the branch NAME. */
+    static int size(String name) {
+        return (int) (Utils.join(LOG_FOLDER, name).length() / RECORD);
+    }
+
+    /** Forget the moves of the branch NAME. */
+    static void delete(String name) {
+        Utils.join(LOG_FOLDER, name).delete();
+    }
+}
@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** The layout of the loose object directories of gitlet. The object
+ *  with id ID is stored as DIR/ID[0..2]/ID, so each of the 256 shard
+ *  directories holds a 256th of the objects and none of them grows
+ *  large enough to slow down listing or creating files. The file name
+ *  is still the whole id, so code that reads the id from a File keeps
+ *  working.
+ *  @author Shantao Ru
+ */
+class Shards {
+
+    /** Number of hexadecimal digits in the name of a shard. */
+    private static final int DIGITS = 2;
+
+    /** Return the file of the object ID in the object directory DIR. */
+    static File file(File dir, String id) {
+        if (id.length() <= DIGITS) {
+            return Utils.join(dir, id);
+        }
+        return Utils.join(dir, id.substring(0, DIGITS), id);
+    }
+
+    /** Return the file of the object ID in DIR, creating its shard
+     *  directory if needed, so the object can be written. */
+    static File create(File dir, String id) {
+        File file = file(dir, id);
+        if (file.getParentFile().mkdir()) {
+            Utils.syncLater(file.getParentFile());
+        }
+        return file;
+    }
+
+    /** Return the ids of the objects in DIR, in sorted order. Each shard
+     *  is only listed when the iteration reaches it. */
+    static Iterable<String> ids(File dir) {
+        return () -> new ShardIterator(dir);
+    }
+
+    /** Return the ids of the objects in DIR as a sorted list. */
+    static List<String> list(File dir) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String id : ids(dir)) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Move the objects stored directly in DIR, as repositories did
+     *  before shards, into their shards. Return the number moved. */
+    static int migrate(File dir) throws IOException {
+        int moved = 0;
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names == null) {
+            return 0;
+        }
+        for (String name : names) {
+            if (Utils.isID(name)) {
+                Files.move(Utils.join(dir, name).toPath(),
+                        create(dir, name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                moved += 1;
+            }
+        }
+        return moved;
+    }
+
+    /** Iterates over the object ids of one object directory, listing
+     *  one shard at a time. */
+    private static class ShardIterator implements Iterator<String> {
+
+        /** Names of the shards, sorted. */
+        private final String[] shards;
+
+        /** The object directory. */
+        private final File dir;
+
+        /** Position of the next shard to list. */
+        private int nextShard;
+
+        /** Ids of the shard being iterated. */
+        private List<String> current = List.of();
+
+        /** Position of the next id in CURRENT. */
+        private int next;
+
+        /** An iterator over the objects in DIR0. */
+        ShardIterator(File dir0) {
+            dir = dir0;
+            String[] names = dir.list((d, name) -> name.length() == DIGITS
+                    && new File(d, name).isDirectory());
+            shards = names == null ? new String[0] : names;
+            Arrays.sort(shards);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next >= current.size() && nextShard < shards.length) {
+                List<String> ids = Utils.plainFilenamesIn(
+                        new File(dir, shards[nextShard]));
+                nextShard += 1;
+                current = ids == null ? List.of() : ids;
+                next = 0;
+            }
+            return next < current.size();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            next += 1;
+            return current.get(next - 1);
+        }
+    }
+}
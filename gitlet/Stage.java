@@ -2,8 +2,9 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 
 /** This is the stage class of gitlet.
@@ -11,18 +12,23 @@ import java.util.HashMap;
  * for the next commit.
  * @author Shantao Ru
  * */
-public class Stage implements Serializable {
+public class Stage implements Codec.Encodable {
+
+    /** Java serialization version of the stages that kept blob ids
+     *  rather than blob Files, which migrate reads before writing them in
+     *  the Codec format. */
+    private static final long serialVersionUID = -2074269163449276510L;
 
     /** Directory of the stage file. */
     static final File STAGE_FILE = Utils.join(Gitlet.GITLET_FILE, "stage");
 
-    /** Map that include the file and the filename.
-     * HashMap<String filename, File boldFile>
+    /** Map that include the blob id and the filename.
+     * HashMap<String filename, String blobID>
      */
-    private HashMap<String, File> addingfiles;
+    private HashMap<String, String> addingfiles;
 
-    /** Map that include the removed files. */
-    private HashMap<String, File> removefiles;
+    /** Names of the removed files. */
+    private HashSet<String> removefiles;
 
 
     /** Initialize the stage file. */
@@ -37,30 +43,29 @@ public class Stage implements Serializable {
     /** Constructor for stage. */
     public Stage() {
         addingfiles = new HashMap<>();
-        removefiles = new HashMap<>();
+        removefiles = new HashSet<>();
     }
 
     /** Add track file to stage.
      * @param name name of the file
      * @param file blob file of the target file*/
     public void addFile(String name, File file) {
-        addingfiles.put(name, file);
+        addingfiles.put(name, file.getName());
     }
 
     /** Add remove file to stage.
-     * @param name name of the remove file
-     * @param file the location of the rm file*/
-    public void addrmFile(String name, File file) {
-        removefiles.put(name, file);
+     * @param name name of the remove file */
+    public void addrmFile(String name) {
+        removefiles.add(name);
     }
 
-    /** Return addFiles. */
-    public HashMap<String, File> getAddingfiles() {
+    /** Return addFiles, the blob id of each by filename. */
+    public HashMap<String, String> getAddingfiles() {
         return addingfiles;
     }
 
     /** Return rmFiles. */
-    public HashMap<String, File> getRemovefiles() {
+    public HashSet<String> getRemovefiles() {
         return removefiles;
     }
 
@@ -81,14 +86,47 @@ public class Stage implements Serializable {
      * @param name filename of the target file
      * @return blob file of the given filename */
     public File getBolb(String name) {
-        return addingfiles.get(name);
+        return getBoldfile(name);
     }
 
     /** Get current blod file with the key.
      * @param key file name of the target file
      * @return blob file base on the given name */
     public File getBoldfile(String key) {
-        return addingfiles.get(key);
+        String id = addingfiles.get(key);
+        return id == null ? null : Blob.file(id);
+    }
+
+    @Override
+    public int type() {
+        return Codec.STAGE;
+    }
+
+    @Override
+    public void encode(Codec.Writer out) {
+        out.varint(addingfiles.size());
+        for (Map.Entry<String, String> e : addingfiles.entrySet()) {
+            out.string(e.getKey());
+            out.id(e.getValue());
+        }
+        out.varint(removefiles.size());
+        for (String name : removefiles) {
+            out.string(name);
+        }
+    }
+
+    /** Return the stage whose files are read from IN.
+     * @param in reader of an encoded stage
+     * @return the stage */
+    static Stage decode(Codec.Reader in) {
+        Stage result = new Stage();
+        for (int n = in.varint(); n > 0; n -= 1) {
+            result.addingfiles.put(in.string(), in.id());
+        }
+        for (int n = in.varint(); n > 0; n -= 1) {
+            result.removefiles.add(in.string());
+        }
+        return result;
     }
 
     /** Determine if stage is empty.
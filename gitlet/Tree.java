@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** This is the Tree class of gitlet.
+ * A tree holds one directory of a commit: the blob id of each file
+ * in it and the tree id of each subdirectory. Its id is the SHA-1 of
+ * those entries, so a directory that did not change keeps its id and
+ * its tree is shared by every commit that contains it, and diffs can
+ * skip it without reading it.
+ * Trees are stored in .gitlet/trees, named by their ids and sharded
+ * by their first two digits.
+ * @author Shantao Ru
+ */
+public class Tree implements Codec.Encodable {
+
+    /** Java serialization version of the trees written before the
+     *  Codec format, which migrate still reads. */
+    private static final long serialVersionUID = -4193053638312739314L;
+
+    /** Directory of the tree files. */
+    static final File TREE_FOLDER = Utils.join(Gitlet.GITLET_FILE, "trees");
+
+    /** Files in this directory, HashMap<FileName, BlobID>. */
+    private TreeMap<String, String> blobs = new TreeMap<>();
+
+    /** Subdirectories of this directory, HashMap<DirName, TreeID>. */
+    private TreeMap<String, String> trees = new TreeMap<>();
+
+    /** Init the tree directory and write the empty tree. */
+    static void init() {
+        if (!TREE_FOLDER.exists()) {
+            TREE_FOLDER.mkdir();
+        }
+        new Tree().write();
+    }
+
+    /** Id of the tree with no entries. */
+    static final String EMPTY_ID = new Tree().id();
+
+    /** Return the ids of all trees, loose and packed, in sorted order. */
+    static List<String> allIDs() {
+        TreeSet<String> ids = new TreeSet<>(Pack.ids(Pack.TREE));
+        ids.addAll(Shards.list(TREE_FOLDER));
+        return new ArrayList<>(ids);
+    }
+
+    /** Return the file of the tree with id ID. */
+    static File file(String id) {
+        return Shards.file(TREE_FOLDER, id);
+    }
+
+    /** Return the tree with id ID. */
+    static Tree read(String id) {
+        return Utils.readObject(file(id), Tree.class);
+    }
+
+    /** Return the id of this tree, the SHA-1 of its entries. */
+    String id() {
+        StringBuilder entries = new StringBuilder();
+        for (Map.Entry<String, String> e : blobs.entrySet()) {
+            entries.append("blob ").append(e.getValue()).append(' ')
+                    .append(e.getKey()).append('\n');
+        }
+        for (Map.Entry<String, String> e : trees.entrySet()) {
+            entries.append("tree ").append(e.getValue()).append(' ')
+                    .append(e.getKey()).append('\n');
+        }
+        return Utils.sha1(entries.toString());
+    }
+
+    /** Write this tree unless it already exists, and return its id. */
+    String write() {
+        String id = id();
+        File file = file(id);
+        if (!file.exists() && !Pack.contains(id)) {
+            Utils.writeObject(Shards.create(TREE_FOLDER, id), this);
+        }
+        return id;
+    }
+
+    /** Return the id of the tree ROOT after applying CHANGES to it,
+     *  writing only the trees of directories that changed.
+     * @param root id of the tree to change
+     * @param changes new blob id of each changed path, or null for
+     *                paths that were removed */
+    static String update(String root, Map<String, String> changes) {
+        String result = apply(root, changes);
+        return result == null ? new Tree().write() : result;
+    }
+
+    /** Return the id of tree ID, which may be null for an empty tree,
+     *  after applying CHANGES, or null if the result is empty. */
+    private static String apply(String id, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        Tree tree = new Tree();
+        if (id != null) {
+            Tree old = read(id);
+            tree.blobs.putAll(old.blobs);
+            tree.trees.putAll(old.trees);
+        }
+        TreeMap<String, Map<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            } else if (e.getValue() == null) {
+                tree.blobs.remove(path);
+            } else {
+                tree.blobs.put(path, e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> e : below.entrySet()) {
+            String child = apply(tree.trees.get(e.getKey()), e.getValue());
+            if (child == null) {
+                tree.trees.remove(e.getKey());
+            } else {
+                tree.trees.put(e.getKey(), child);
+            }
+        }
+        if (tree.blobs.isEmpty() && tree.trees.isEmpty()) {
+            return null;
+        }
+        return tree.write();
+    }
+
+    /** Return the blob id of every file under the tree ID, by path. */
+    static TreeMap<String, String> flatten(String id) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    /** Return the blob id of the file PATH under the tree ID, or null
+     *  if there is none. Only the trees on the way to it are read. */
+    static String lookup(String id, String path) {
+        Tree tree = read(id);
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', start)) {
+            String sub = tree.trees.get(path.substring(start, slash));
+            if (sub == null) {
+                return null;
+            }
+            tree = read(sub);
+            start = slash + 1;
+        }
+        return tree.blobs.get(path.substring(start));
+    }
+
+    /** Add the files under the tree ID to RESULT, with PREFIX in front
+     *  of their paths. */
+    private static void flatten(String id, String prefix,
+                                Map<String, String> result) {
+        Tree tree = read(id);
+        for (Map.Entry<String, String> e : tree.blobs.entrySet()) {
+            result.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : tree.trees.entrySet()) {
+            flatten(e.getValue(), prefix + e.getKey() + "/", result);
+        }
+    }
+
+    /** Return the paths whose blobs differ between the trees A and B,
+     *  each with its blob id in A and in B (null where it is missing).
+     *  Subtrees with the same id in both are skipped without being
+     *  read. */
+    static TreeMap<String, String[]> diff(String a, String b) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    /** Add the differences between trees A and B, either of which may
+     *  be null, to RESULT with PREFIX in front of their paths. */
+    private static void diff(String a, String b, String prefix,
+                             Map<String, String[]> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Tree treeA = a == null ? new Tree() : read(a);
+        Tree treeB = b == null ? new Tree() : read(b);
+        TreeSet<String> names = new TreeSet<>(treeA.blobs.keySet());
+        names.addAll(treeB.blobs.keySet());
+        for (String name : names) {
+            String blobA = treeA.blobs.get(name);
+            String blobB = treeB.blobs.get(name);
+            if (blobA == null || !blobA.equals(blobB)) {
+                result.put(prefix + name, new String[] {blobA, blobB});
+            }
+        }
+        TreeSet<String> dirs = new TreeSet<>(treeA.trees.keySet());
+        dirs.addAll(treeB.trees.keySet());
+        for (String dir : dirs) {
+            diff(treeA.trees.get(dir), treeB.trees.get(dir),
+                    prefix + dir + "/", result);
+        }
+    }
+
+    @Override
+    public int type() {
+        return Codec.TREE;
+    }
+
+    @Override
+    public void encode(Codec.Writer out) {
+        out.varint(blobs.size());
+        for (Map.Entry<String, String> e : blobs.entrySet()) {
+            out.string(e.getKey());
+            out.id(e.getValue());
+        }
+        out.varint(trees.size());
+        for (Map.Entry<String, String> e : trees.entrySet()) {
+            out.string(e.getKey());
+            out.id(e.getValue());
+        }
+    }
+
+    /** Return the tree whose entries are read from IN. */
+    static Tree decode(Codec.Reader in) {
+        Tree result = new Tree();
+        for (int n = in.varint(); n > 0; n -= 1) {
+            result.blobs.put(in.string(), in.id());
+        }
+        for (int n = in.varint(); n > 0; n -= 1) {
+            result.trees.put(in.string(), in.id());
+        }
+        return result;
+    }
+
+    /** Return the ids of this tree's subtrees. */
+    Iterable<String> subtrees() {
+        return trees.values();
+    }
+}
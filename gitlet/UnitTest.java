@@ -3,7 +3,18 @@ package gitlet;
 import ucb.junit.textui;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -53,8 +64,317 @@ public class UnitTest {
         Gitlet.globallog();
     }
 
-}
+    @Test
+    public void mergeBaseCrissCrossTest() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        CommitGraph graph = new CommitGraph(new File(dir, "graph"),
+                new File(dir, "data"));
+        String time = "Thu Jan 1 00:00:00 1970 +0000";
+        String root = Utils.sha1("root");
+        String a1 = Utils.sha1("a1");
+        String b1 = Utils.sha1("b1");
+        String a2 = Utils.sha1("a2");
+        String b2 = Utils.sha1("b2");
+        graph.append(root, null, null, time, "root");
+        graph.append(a1, root, null, time, "a1");
+        graph.append(b1, root, null, time, "b1");
+        graph.append(a2, a1, b1, time, "a2");
+        graph.append(b2, b1, a1, time, "b2");
+        MergeBase bases = new MergeBase(graph);
+        List<Integer> crossed = bases.all(graph.find(a2), graph.find(b2));
+        assertEquals(2, crossed.size());
+        assertTrue(crossed.contains(graph.find(a1)));
+        assertTrue(crossed.contains(graph.find(b1)));
+        assertEquals(graph.find(b1),
+                bases.best(graph.find(a2), graph.find(b1)));
+        assertEquals(graph.find(root),
+                bases.best(graph.find(a1), graph.find(b1)));
+    }
+
+    @Test
+    public void prefixIndexTest() throws IOException {
+        File file = File.createTempFile("commit-ids", null);
+        PrefixIndex index = new PrefixIndex(file);
+        String a = "abcd" + "0".repeat(36);
+        String b = "abce" + "1".repeat(36);
+        String c = "abcd" + "2".repeat(36);
+        index.rewrite(List.of(a, b));
+        index.add(c);
+        assertEquals(List.of(b), index.resolve("abce", 2));
+        assertEquals(2, index.resolve("abcd", 2).size());
+        assertEquals(List.of(c), index.resolve("abcd2", 2));
+        assertEquals(List.of(a), index.resolve(a, 2));
+        assertTrue(index.resolve("abcf", 2).isEmpty());
+        assertTrue(index.resolve("ABCE", 2).isEmpty());
+        file.delete();
+    }
+
+    @Test
+    public void commitIDTest() {
+        Commit commit = new Commit("message", "today", null);
+        String id = commit.commitID();
+        assertEquals(Utils.sha1(Codec.encode(commit)), id);
+        assertSame(id, commit.commitID());
+        commit.changeTree(Utils.sha1("tree"));
+        assertNotEquals(id, commit.commitID());
+    }
+
+    @Test
+    public void codecRoundTripTest() {
+        String id = Utils.sha1("parent");
+        Commit commit = new Commit("message \u00e9", "today",
+                Commit.file(id));
+        commit.changeTree(Utils.sha1("tree"));
+        byte[] data = Codec.encode(commit);
+        Commit copy = (Commit) Codec.decode(ByteBuffer.wrap(data));
+        assertEquals(commit.commitID(), copy.commitID());
+        assertEquals(id, copy.getParent().getName());
+        assertNull(copy.getParent2());
+
+        Stage stage = new Stage();
+        stage.addFile("dir/a.txt", Blob.file(id));
+        stage.addrmFile("b.txt");
+        Stage stageCopy = (Stage) Codec.decode(
+                ByteBuffer.wrap(Codec.encode(stage)));
+        assertEquals(stage.getAddingfiles(), stageCopy.getAddingfiles());
+        assertEquals(stage.getRemovefiles(), stageCopy.getRemovefiles());
+    }
+
+    @Test
+    public void oldBranchDecodeTest() {
+        String id = Utils.sha1("head");
+        byte[] old = Codec.encode(new Codec.Encodable() {
+            @Override
+            public int type() {
+                return Codec.BRANCH;
+            }
+
+            @Override
+            public void encode(Codec.Writer out) {
+                out.string("master");
+                out.optionalID(id);
+                out.varint(2);
+                out.id(Utils.sha1("first"));
+                out.id(id);
+            }
+        });
+        old[4] = 1;
+        Branch branch = (Branch) Codec.decode(ByteBuffer.wrap(old));
+        assertEquals("master", branch.getName());
+        assertEquals(id, branch.getBranchpointer().getName());
+        byte[] now = Codec.encode(branch);
+        assertTrue(now.length < old.length);
+        assertEquals(id, ((Branch) Codec.decode(ByteBuffer.wrap(now)))
+                .getBranchpointer().getName());
+    }
+
+    @Test
+    public void atomicWriteTest() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File file = new File(dir, "ref");
+        Utils.writeContents(file, "old");
+        Files.setPosixFilePermissions(file.toPath(),
+                PosixFilePermissions.fromString("rw-r-----"));
+        Utils.writeContents(file, "new");
+        Utils.sync();
+        assertEquals("new", Utils.readContentsAsString(file));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(file.toPath())));
+        assertEquals(List.of("ref"), Utils.plainFilenamesIn(dir));
+        assertEquals(1, dir.list().length);
+        file.delete();
+        dir.delete();
+    }
 
+    @Test
+    public void tornGraphRecordTest() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File graphFile = new File(dir, "graph");
+        File dataFile = new File(dir, "data");
+        CommitGraph graph = new CommitGraph(graphFile, dataFile);
+        String time = "Thu Jan 1 00:00:00 1970 +0000";
+        String a = Utils.sha1("a");
+        String b = Utils.sha1("b");
+        String c = Utils.sha1("c");
+        graph.append(a, null, null, time, "a");
+        graph.append(b, a, null, time, "b");
+        Files.write(graphFile.toPath(), new byte[17],
+                StandardOpenOption.APPEND);
+        Files.write(dataFile.toPath(), new byte[] {0, 0, 0, 9},
+                StandardOpenOption.APPEND);
+        graph = new CommitGraph(graphFile, dataFile);
+        assertEquals(2, graph.size());
+        graph.append(c, b, null, time, "c");
+        graph = new CommitGraph(graphFile, dataFile);
+        assertEquals(3, graph.size());
+        assertEquals(c, graph.id(2));
+        assertEquals(1, graph.parent(2));
+        assertEquals("c", graph.message(2));
+        assertEquals("b", graph.message(1));
+    }
+
+    @Test
+    public void logSinceTest() {
+        StringWriter text = new StringWriter();
+        LogWriter out = LogWriter.open(text, "--since", "2020-01-01");
+        String id = Utils.sha1("log");
+        assertTrue(out.write(id, "Mon Jan 6 10:00:00 2025 -0800", "new"));
+        assertTrue(out.write(id, "lundi 6 janv. 2025 -0800", "odd"));
+        assertFalse(out.write(id, "Thu Jan 1 00:00:00 1970 +0000",
+                "initial commit"));
+        out.close();
+        assertTrue(text.toString().contains("\nnew\n"));
+        assertTrue(text.toString().contains("\nodd\n"));
+        assertFalse(text.toString().contains("initial commit"));
+    }
+
+    @Test
+    public void globalLogSinceRebuildTest() throws IOException {
+        if (!Gitlet.GITLET_FILE.exists()) {
+            Gitlet.init();
+        }
+        File root = commit("since root", "Thu Jan 1 00:00:00 1970 -0800",
+                null);
+        File a1 = commit("since a1", "Fri Jan 1 10:00:00 2021 -0800", root);
+        File b1 = commit("since b1", "Mon Feb 1 10:00:00 2021 -0800", root);
+        File a2 = commit("since a2", "Mon Mar 1 10:00:00 2021 -0800", a1);
+        File b2 = commit("since b2", "Thu Apr 1 10:00:00 2021 -0800", b1);
+        CommitGraph.rebuild();
+        CommitGraph graph = CommitGraph.get();
+        assertTrue(graph.find(a1.getName()) < graph.find(b1.getName()));
+        assertTrue(graph.find(b1.getName()) < graph.find(a2.getName()));
+        assertTrue(graph.find(a2.getName()) < graph.find(b2.getName()));
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes));
+        try {
+            Gitlet.globallog("--since", "2021-01-15");
+        } finally {
+            System.setOut(stdout);
+        }
+        String log = bytes.toString();
+        for (File c : new File[] {b1, a2, b2}) {
+            assertTrue(log.contains("commit " + c.getName()));
+        }
+        assertFalse(log.contains("commit " + a1.getName()));
+        assertFalse(log.contains("commit " + root.getName()));
+        StringWriter text = new StringWriter();
+        LogWriter out = LogWriter.open(text, "--since", "2021-01-15")
+                .anyOrder();
+        assertTrue(out.write(a1.getName(), "Fri Jan 1 10:00:00 2021 -0800",
+                "since a1"));
+        assertTrue(out.write(b1.getName(), "Mon Feb 1 10:00:00 2021 -0800",
+                "since b1"));
+        out.close();
+        assertTrue(text.toString().contains("since b1"));
+    }
+
+    /** Write a commit with MESSAGE made at TIME on PARENT, with no
+     *  files, and return its file. */
+    private static File commit(String message, String time, File parent) {
+        Commit commit = new Commit(message, time, parent);
+        commit.changeTree(Tree.update(null, new HashMap<>()));
+        File file = Shards.create(Commit.COMMIT_FILE, commit.commitID());
+        Utils.writeObject(file, commit);
+        return file;
+    }
 
+    @Test
+    public void messageIndexAppendTest() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        MessageIndex index = new MessageIndex(dir);
+        index.add(Utils.sha1("first"), "fix the build");
+        long start = index.bytesRead();
+        for (int i = 0; i < 2000; i += 1) {
+            index.add(Utils.sha1("fix " + i), "fix the build");
+        }
+        assertTrue(index.bytesRead() - start <= 2000 * 1024);
+        assertEquals(2001, index.lookup("fix the build").size());
+        assertEquals(2001, new MessageIndex(dir).lookupWord("BUILD").size());
+    }
+
+    @Test
+    public void concurrentLazyBuildTest()
+            throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        gitlet(dir, "init").waitFor();
+        for (int i = 1; i <= 6; i += 1) {
+            Files.writeString(new File(dir, "f.txt").toPath(), "v" + i);
+            gitlet(dir, "add", "f.txt").waitFor();
+            gitlet(dir, "commit", "version " + i).waitFor();
+        }
+        File repo = new File(dir, ".gitlet");
+        for (String name : new String[] {"commit-graph", "commit-data",
+                                         "commit-ids", "find"}) {
+            File file = new File(repo, name);
+            File[] files = file.listFiles();
+            for (File f : files == null ? new File[0] : files) {
+                f.delete();
+            }
+            file.delete();
+        }
+        ArrayList<Process> readers = new ArrayList<>();
+        for (int i = 0; i < 6; i += 1) {
+            readers.add(gitlet(dir, "log"));
+            readers.add(gitlet(dir, "find", "version " + (i + 1)));
+            readers.add(gitlet(dir, "status"));
+        }
+        String log = null;
+        for (int i = 0; i < readers.size(); i += 1) {
+            String out = new String(
+                    readers.get(i).getInputStream().readAllBytes());
+            assertEquals(0, readers.get(i).waitFor());
+            assertFalse(out.contains("Exception"));
+            if (i % 3 == 0) {
+                assertTrue(log == null || log.equals(out));
+                log = out;
+            } else if (i % 3 == 1) {
+                assertEquals(41, out.length());
+            }
+        }
+        assertEquals(7, log.split("\n===\n", -1).length);
+        assertEquals(8 + 7 * 40, new File(repo, "commit-graph").length());
+        assertFalse(new File(repo, "index.lock").exists());
+    }
 
+    @Test
+    public void batchInitLockTest()
+            throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Files.writeString(new File(dir, "f.txt").toPath(), "f");
+        File lock = new File(dir, ".gitlet/index.lock");
+        Process batch = gitlet(dir, "batch");
+        batch.getOutputStream().write("init\n".getBytes());
+        batch.getOutputStream().flush();
+        File blobs = new File(dir, ".gitlet/Bolbs");
+        for (int i = 0; i < 500 && !blobs.exists(); i += 1) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(500);
+        assertTrue(lock.exists());
+        batch.getOutputStream().write("add f.txt\ncommit f\n".getBytes());
+        batch.getOutputStream().close();
+        assertEquals("", new String(batch.getInputStream().readAllBytes()));
+        assertEquals(0, batch.waitFor());
+        assertFalse(lock.exists());
+        Process log = gitlet(dir, "log");
+        String out = new String(log.getInputStream().readAllBytes());
+        log.waitFor();
+        assertTrue(out.contains("\nf\n"));
+    }
 
+    /** Return a gitlet process running ARGS in DIR, whose output
+     *  includes its errors. */
+    private static Process gitlet(File dir, String... args)
+            throws IOException {
+        ArrayList<String> command = new ArrayList<>(List.of(
+                Utils.join(System.getProperty("java.home"), "bin", "java")
+                        .getPath(),
+                "-Dgitlet.fsync=false", "-cp",
+                System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+    }
+
+}
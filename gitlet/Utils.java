@@ -3,20 +3,29 @@ package gitlet;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /** Assorted utilities.
@@ -43,11 +52,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return toHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -59,6 +64,73 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** The length of a complete SHA-1 UID in bytes. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Lowercase hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS =
+        "0123456789abcdef".toCharArray();
+
+    /** Returns the lowercase hexadecimal numeral of BYTES. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Returns the UID whose ID_BYTES bytes start at index START of
+     *  BUF, without moving the position of BUF. */
+    static String idAt(ByteBuffer buf, int start) {
+        char[] result = new char[UID_LENGTH];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int b = buf.get(start + i) & 0xff;
+            result[2 * i] = HEX_DIGITS[b >> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Returns the ID_BYTES bytes of the UID ID. */
+    static byte[] idBytes(String id) {
+        if (!isID(id)) {
+            throw error("Malformed id %s.", id);
+        }
+        byte[] result = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result[i] = (byte) (hexDigit(id.charAt(2 * i)) << 4
+                                | hexDigit(id.charAt(2 * i + 1)));
+        }
+        return result;
+    }
+
+    /** Returns true iff S is a complete UID: UID_LENGTH lowercase
+     *  hexadecimal digits. */
+    static boolean isID(String s) {
+        if (s.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (hexDigit(s.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the value of the lowercase hexadecimal digit C, or -1 if
+     *  C is not one. */
+    static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -109,38 +181,223 @@ class Utils {
 
     /** Write the result of concatenating the bytes in CONTENTS to FILE,
      *  creating or overwriting it as needed.  Each object in CONTENTS may be
-     *  either a String or a byte array.  Throws IllegalArgumentException
-     *  in case of problems. */
+     *  either a String or a byte array.  The bytes go to a temporary file
+     *  that is then renamed to FILE, so FILE always holds either its old
+     *  or its new contents.  A new file is made durable by the next sync.
+     *  When FILE is replaced, as refs and the stage are, it keeps its
+     *  permissions, the objects written since the last sync are synced
+     *  first, once for all the refs a command replaces after them, and
+     *  the new contents are synced before the rename, so after a crash
+     *  FILE never refers to data that was lost.  Throws
+     *  IllegalArgumentException in case of problems. */
     static void writeContents(File file, Object... contents) {
         try {
             if (file.isDirectory()) {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
-            BufferedOutputStream str =
-                new BufferedOutputStream(Files.newOutputStream(file.toPath()));
-            for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+            boolean replace = file.exists();
+            File temp = File.createTempFile("." + file.getName() + ".",
+                    TEMP_SUFFIX, file.getAbsoluteFile().getParentFile());
+            try (FileChannel channel = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                BufferedOutputStream str = new BufferedOutputStream(
+                        Channels.newOutputStream(channel));
+                for (Object obj : contents) {
+                    if (obj instanceof byte[]) {
+                        str.write((byte[]) obj);
+                    } else {
+                        str.write(((String) obj)
+                                .getBytes(StandardCharsets.UTF_8));
+                    }
                 }
+                str.flush();
+                if (replace) {
+                    keepPermissions(file, temp);
+                }
+                if (replace && FSYNC) {
+                    if (objectsPending) {
+                        sync();
+                    }
+                    channel.force(true);
+                }
+            } catch (IOException | ClassCastException excp) {
+                temp.delete();
+                throw excp;
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            if (replace) {
+                syncLater(file.getAbsoluteFile().getParentFile(), false);
+            } else {
+                syncLater(file);
             }
-            str.close();
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Rename TEMP, a file or directory holding the new contents of
+     *  FILE, to FILE at once, replacing FILE if it is a file, so that a
+     *  command reading FILE without the Lock sees all of them or none.
+     *  Everything written so far, TEMP included, is synced first.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void rename(File temp, File file) {
+        sync();
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        syncLater(file.getAbsoluteFile().getParentFile(), false);
+    }
+
+    /** Give TEMP the permissions of FILE, where the file system has
+     *  them. */
+    private static void keepPermissions(File file, File temp)
+            throws IOException {
+        try {
+            Files.setPosixFilePermissions(temp.toPath(),
+                    Files.getPosixFilePermissions(file.toPath()));
+        } catch (UnsupportedOperationException excp) {
+            return;
+        }
+    }
+
+    /** Write BYTES to FILE at offset END, creating FILE if needed, after
+     *  cutting FILE down to END bytes.  Files that records are appended
+     *  to pass the end of their last whole record as END, so a record
+     *  left partly written by a crash is dropped rather than shifting
+     *  every record written after it.  FILE is made durable by the next
+     *  sync; no ref refers to records, so writing them does not make
+     *  the next ref replaced sync first.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static void appendContents(File file, long end, byte[] bytes) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                channel.write(buf, end + buf.position());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        syncLater(file, true);
+    }
+
+    /* DURABILITY */
+
+    /** True unless gitlet.fsync is false, in which case nothing is ever
+     *  synced to the disk. */
+    static final boolean FSYNC = Boolean.parseBoolean(
+            System.getProperty("gitlet.fsync", "true"));
+
+    /** Suffix of the temporary files of writeContents. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Files and directories whose contents have not been synced. */
+    private static final Set<File> UNSYNCED = ConcurrentHashMap.newKeySet();
+
+    /** Directories whose entries have changed since they were synced. */
+    private static final Set<File> UNSYNCED_DIRS =
+        ConcurrentHashMap.newKeySet();
+
+    /** True if an object was written since the last sync, so that the
+     *  next ref replaced must sync first. */
+    private static volatile boolean objectsPending;
+
+    /** Make FILE, a file or directory just created, and its entry in
+     *  its directory durable at the next sync. */
+    static void syncLater(File file) {
+        objectsPending = FSYNC;
+        syncLater(file, true);
+    }
+
+    /** Make FILE durable at the next sync: its contents if CONTENTS,
+     *  and its entry in its directory if it is a file. */
+    private static void syncLater(File file, boolean contents) {
+        if (!FSYNC) {
+            return;
+        }
+        File abs = file.getAbsoluteFile();
+        if (contents) {
+            UNSYNCED.add(abs);
+            UNSYNCED_DIRS.add(abs.getParentFile());
+        } else {
+            UNSYNCED_DIRS.add(abs);
+        }
+    }
+
+    /** Sync every file and directory written since the last sync to
+     *  the disk: first the contents of the files, then each directory
+     *  they were written to, once. Commands call this once, when they
+     *  are done, rather than once per file. */
+    static synchronized void sync() {
+        objectsPending = false;
+        for (File file : new ArrayList<>(UNSYNCED)) {
+            force(file);
+            UNSYNCED.remove(file);
+        }
+        for (File dir : new ArrayList<>(UNSYNCED_DIRS)) {
+            force(dir);
+            UNSYNCED_DIRS.remove(dir);
+        }
+    }
+
+    /** Sync the file or directory FILE, if it still exists, to the
+     *  disk. Directories are skipped where they cannot be synced. */
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (NoSuchFileException excp) {
+            return;
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  If FILE is missing but an object named like it has been packed,
+     *  read it from the pack instead. Objects already read or written
+     *  by this command come from the ObjectCache, and deferred writes
+     *  are read back from memory. FILE may hold either
+     *  a Codec encoding or a Java-serialized object.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
+            Serializable deferred = DEFERRED.get(file);
+            if (deferred != null) {
+                return expectedClass.cast(deferred);
+            }
+            Serializable cached = ObjectCache.get(file);
+            if (cached != null) {
+                return expectedClass.cast(cached);
+            }
+            ByteBuffer buf;
+            if (!file.exists() && Pack.contains(file.getName())) {
+                buf = ByteBuffer.wrap(Pack.read(file.getName()));
+            } else {
+                buf = map(file, false);
+            }
+            int size = buf.remaining();
+            T result;
+            if (Codec.isEncoded(buf)) {
+                result = expectedClass.cast(Codec.decode(buf));
+            } else {
+                ObjectInputStream in =
+                    new ObjectInputStream(new BufferInput(buf));
+                result = expectedClass.cast(in.readObject());
+                in.close();
+            }
+            ObjectCache.put(file, result, size);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -148,19 +405,128 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Files smaller than this are read into the heap by map rather
+     *  than mapped, since mapping costs more than copying them. */
+    static final int MAP_THRESHOLD = 1 << 16;
+
+    /** Return the contents of FILE, which must be a normal file, as a
+     *  read-only buffer. The file is memory-mapped if ALWAYS or if it
+     *  has at least MAP_THRESHOLD bytes, so readers parse it in place
+     *  without copying it onto the heap. Throws IllegalArgumentException
+     *  in case of problems. */
+    static ByteBuffer map(File file, boolean always) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (always || size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer result = ByteBuffer.allocate((int) size);
+            while (result.hasRemaining()) {
+                if (channel.read(result) < 0) {
+                    throw new IOException("file shrank while being read");
+                }
+            }
+            return result.flip();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An InputStream over the remaining bytes of a ByteBuffer. */
+    static class BufferInput extends InputStream {
+
+        /** The buffer being read. */
+        private final ByteBuffer buf;
+
+        /** A stream over BUFFER. */
+        BufferInput(ByteBuffer buffer) {
+            buf = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    /** Write OBJ to FILE, and keep it in the ObjectCache. Objects with
+     *  a Codec encoding are written in it, others with Java
+     *  serialization. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        if (deferrable.contains(file)) {
+            DEFERRED.put(file, obj);
+            return;
+        }
+        byte[] data = encode(obj);
+        writeContents(file, data);
+        ObjectCache.put(file, obj, data.length);
+    }
+
+    /** Return the contents of the file of OBJ: its Codec encoding if it
+     *  has one, and its Java serialization otherwise. */
+    private static byte[] encode(Serializable obj) {
+        return obj instanceof Codec.Encodable
+            ? Codec.encode((Codec.Encodable) obj) : serialize(obj);
+    }
+
+    /** Files whose writes are deferred. */
+    private static Set<File> deferrable = Set.of();
+
+    /** Objects written to deferrable files and not flushed yet. */
+    private static final LinkedHashMap<File, Serializable> DEFERRED =
+        new LinkedHashMap<>();
+
+    /** Write the deferred objects, and from now on keep objects
+     *  written to FILES in memory, where readObject finds them, until
+     *  they are flushed, rather than writing each of them. */
+    static void deferWrites(File... files) {
+        flushWrites();
+        deferrable = Set.of(files);
+    }
+
+    /** Return true if an object written to FILE has not been flushed. */
+    static boolean isDeferred(File file) {
+        return DEFERRED.containsKey(file);
+    }
+
+    /** Write the object last written to FILE, if it was deferred. */
+    static void flushWrite(File file) {
+        Serializable obj = DEFERRED.remove(file);
+        if (obj != null) {
+            byte[] data = encode(obj);
+            writeContents(file, data);
+            ObjectCache.put(file, obj, data.length);
+        }
+    }
+
+    /** Write all deferred objects. */
+    static void flushWrites() {
+        for (File file : new ArrayList<>(DEFERRED.keySet())) {
+            flushWrite(file);
+        }
     }
 
     /* DIRECTORIES */
 
-    /** Filter out all but plain files. */
+    /** Filter out all but plain files, and the temporary files of
+     *  writeContents. */
     private static final FilenameFilter PLAIN_FILES =
         new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
-                return new File(dir, name).isFile();
+                return new File(dir, name).isFile()
+                    && !(name.startsWith(".") && name.endsWith(TEMP_SUFFIX));
             }
         };
 
@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/** The working tree of gitlet: the files under the current working
+ *  directory, named by their paths relative to it. Scanning, hashing,
+ *  blob writes and checkouts are spread over a fork-join pool of
+ *  gitlet.threads threads (by default one per processor), and results
+ *  always come back in path order.
+ *  @author Shantao Ru
+ */
+class Worktree {
+
+    /** Number of threads used for working tree operations. */
+    static final int THREADS = Integer.getInteger("gitlet.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Lists shorter than this are not split further between threads. */
+    private static final int GRAIN = 16;
+
+    /** The pool, created the first time it is needed. */
+    private static ForkJoinPool pool;
+
+    /** Return the paths of all plain files under the working directory,
+     *  relative to it with '/' between directories, in sorted order.
+     *  The .gitlet directory and symbolic links to directories are
+     *  skipped, and each directory is listed by its own task. */
+    static List<String> files() {
+        return files("");
+    }
+
+    /** Return the paths of the plain files under the working directory
+     *  DIR, which is "" for the working directory itself, as files
+     *  does. */
+    static List<String> files(String dir) {
+        List<String> result = pool().invoke(dir.isEmpty()
+                ? new Scan(Gitlet.CWD_FOLD, "")
+                : new Scan(Utils.join(Gitlet.CWD_FOLD, dir), dir + "/"));
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return true if the path argument ARG is a glob pattern, such as
+     *  "*.txt" or "src/**.java". */
+    static boolean isPattern(String arg) {
+        for (int i = 0; i < arg.length(); i += 1) {
+            if ("*?[{".indexOf(arg.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the paths among PATHS that match the glob PATTERN, a
+     *  working path as returned by path, in the order of PATHS. */
+    static List<String> glob(String pattern, Collection<String> paths) {
+        PathMatcher matcher =
+                FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        ArrayList<String> result = new ArrayList<>();
+        for (String path : paths) {
+            if (matcher.matches(Path.of(path))) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /** Return the paths among PATHS under the directory DIR, which is
+     *  "" for the working directory, in the order of PATHS. */
+    static List<String> under(String dir, Collection<String> paths) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String path : paths) {
+            if (dir.isEmpty() || path.startsWith(dir + "/")) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /** Delete the working file at PATH, if it exists, and then every
+     *  parent directory of it that is left empty. */
+    static void delete(String path) {
+        File file = Utils.join(Gitlet.CWD_FOLD, path);
+        if (!Gitlet.GITLET_FILE.isDirectory() || file.isDirectory()) {
+            throw new IllegalArgumentException("not a working file: " + path);
+        }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(Gitlet.CWD_FOLD);
+             dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    /** Return the working path named by ARG, which may be written with
+     *  "." and ".." segments or the platform's separator. */
+    static String path(String arg) {
+        Path cwd = Gitlet.CWD_FOLD.toPath().toAbsolutePath().normalize();
+        Path path = cwd.resolve(arg).normalize();
+        StringBuilder result = new StringBuilder();
+        for (Path part : cwd.relativize(path)) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(part);
+        }
+        return result.toString();
+    }
+
+    /** Return the blob ids of the working files NAMES, which must
+     *  exist, by filename. Only files whose stat data does not match
+     *  INDEX are hashed. */
+    static TreeMap<String, String> hash(List<String> names, Index index) {
+        List<String> ids = map(names, name ->
+                index.blobID(name, Utils.join(Gitlet.CWD_FOLD, name)));
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            result.put(names.get(i), ids.get(i));
+        }
+        return result;
+    }
+
+    /** Make the working files WORK, as returned by files, those of the
+     *  commit TARGET, which replaces the commit HEAD, and record them in
+     *  INDEX. Only files that differ are touched: paths whose blobs
+     *  differ between the trees of HEAD and TARGET, working files that
+     *  TARGET does not track unless they are ignored, and files of
+     *  TARGET whose working copies are missing or changed. Files are
+     *  written in parallel, each by one thread that reads, inflates and
+     *  writes it in chunks, so no more than one file per thread is in
+     *  flight; only deltified packed blobs are built whole in memory.
+     *  Return the number of files written or deleted. */
+    static int checkout(Commit head, Commit target, List<String> work,
+                        Index index) {
+        TreeMap<String, String[]> changes =
+                Tree.diff(head.getTree(), target.getTree());
+        HashMap<String, File> files = target.getFiles();
+        TreeSet<String> write = new TreeSet<>();
+        ArrayList<String> remove = new ArrayList<>();
+        ArrayList<String> same = new ArrayList<>();
+        for (String name : work) {
+            if (!files.containsKey(name)) {
+                if (!Gitlet.ignore(name)) {
+                    remove.add(name);
+                }
+            } else if (!changes.containsKey(name)) {
+                same.add(name);
+            }
+        }
+        for (Map.Entry<String, String> e : hash(same, index).entrySet()) {
+            if (!e.getValue().equals(files.get(e.getKey()).getName())) {
+                write.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (e.getValue()[1] != null) {
+                write.add(e.getKey());
+            }
+        }
+        HashSet<String> present = new HashSet<>(work);
+        for (String name : files.keySet()) {
+            if (!present.contains(name)) {
+                write.add(name);
+            }
+        }
+        for (String name : remove) {
+            delete(name);
+            index.remove(name);
+        }
+        map(new ArrayList<>(write), name -> {
+            File file = Utils.join(Gitlet.CWD_FOLD, name);
+            Blob.overwrite(files.get(name), file);
+            index.record(name, file, files.get(name).getName());
+            return null;
+        });
+        return remove.size() + write.size();
+    }
+
+    /** Write blobs for the working files NAMES, which must exist, and
+     *  return them by filename. */
+    static TreeMap<String, Blob> store(List<String> names, Index index) {
+        List<Blob> blobs = map(names, name ->
+                index.store(name, Utils.join(Gitlet.CWD_FOLD, name)));
+        TreeMap<String, Blob> result = new TreeMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            result.put(names.get(i), blobs.get(i));
+        }
+        return result;
+    }
+
+    /** Return FN applied to each of ITEMS, in the order of ITEMS,
+     *  computed in parallel on the pool. */
+    static <T, R> List<R> map(List<T> items, Function<T, R> fn) {
+        Object[] results = new Object[items.size()];
+        if (THREADS <= 1 || items.size() <= GRAIN) {
+            for (int i = 0; i < results.length; i += 1) {
+                results[i] = fn.apply(items.get(i));
+            }
+        } else {
+            pool().invoke(new Slice<>(items, fn, results, 0, results.length));
+        }
+        ArrayList<R> result = new ArrayList<>();
+        for (Object r : results) {
+            @SuppressWarnings("unchecked")
+            R value = (R) r;
+            result.add(value);
+        }
+        return result;
+    }
+
+    /** Return the pool. */
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(THREADS);
+        }
+        return pool;
+    }
+
+    /** Lists the plain files under one directory, forking a task for
+     *  each subdirectory. */
+    private static class Scan extends RecursiveTask<List<String>> {
+
+        /** The directory. */
+        private final File dir;
+
+        /** Path of DIR relative to the working directory, followed by
+         *  '/' unless it is the working directory itself. */
+        private final String prefix;
+
+        /** A scan of DIR0, whose files are named with PREFIX0 in front. */
+        Scan(File dir0, String prefix0) {
+            dir = dir0;
+            prefix = prefix0;
+        }
+
+        @Override
+        protected List<String> compute() {
+            ArrayList<String> result = new ArrayList<>();
+            ArrayList<Scan> subdirs = new ArrayList<>();
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return result;
+            }
+            for (File child : children) {
+                String name = child.getName();
+                if (child.isFile()) {
+                    result.add(prefix + name);
+                } else if (child.isDirectory() && !name.equals(".gitlet")
+                        && !Files.isSymbolicLink(child.toPath())) {
+                    Scan scan = new Scan(child, prefix + name + "/");
+                    scan.fork();
+                    subdirs.add(scan);
+                }
+            }
+            for (Scan scan : subdirs) {
+                result.addAll(scan.join());
+            }
+            return result;
+        }
+    }
+
+    /** Applies a function to the items in [lo, hi) of a list, splitting
+     *  the range in half until it is GRAIN items or fewer. */
+    private static class Slice<T, R> extends RecursiveAction {
+
+        /** The items. */
+        private final List<T> items;
+
+        /** The function applied to them. */
+        private final Function<T, R> fn;
+
+        /** Where the result for each item goes. */
+        private final Object[] results;
+
+        /** First item of this slice. */
+        private final int lo;
+
+        /** One past the last item of this slice. */
+        private final int hi;
+
+        /** A slice of ITEMS0 from LO0 to HI0 whose results under FN0 go
+         *  in RESULTS0. */
+        Slice(List<T> items0, Function<T, R> fn0, Object[] results0,
+              int lo0, int hi0) {
+            items = items0;
+            fn = fn0;
+            results = results0;
+            lo = lo0;
+            hi = hi0;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                for (int i = lo; i < hi; i += 1) {
+                    results[i] = fn.apply(items.get(i));
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Slice<>(items, fn, results, lo, mid),
+                        new Slice<>(items, fn, results, mid, hi));
+            }
+        }
+    }
+}